@@ -1,40 +1,169 @@
 package fcai.prospera;
 
-import fcai.prospera.repository.AssetFileRepository;
+import fcai.prospera.model.User;
+import fcai.prospera.repository.HoldingsHistoryStore;
+import fcai.prospera.repository.PartitionedAssetRepository;
 import fcai.prospera.repository.UserFileRepository;
+import fcai.prospera.repository.ValuationHistoryStore;
+import fcai.prospera.repository.ValuationRecordingAssetRepository;
 import fcai.prospera.service.AssetService;
 import fcai.prospera.service.AuthService;
+import fcai.prospera.service.HawlScheduler;
 import fcai.prospera.service.ReportGenerationService;
 import fcai.prospera.service.ZakatAndComplianceService;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Main application entry point
  */
 public class Application extends javafx.application.Application {
+    private static final Duration ASSET_WRITE_BEHIND_WINDOW = Duration.ofMillis(500);
+    private static final Duration USER_WRITE_BEHIND_WINDOW = Duration.ofMillis(500);
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_SECONDS = 10;
+
+    private ExchangeRateRefresher rateRefresher;
+    private PartitionedAssetRepository assetRepo;
+    private ValuationHistoryStore valuationHistory;
+    private HoldingsHistoryStore holdingsHistory;
+    private UserFileRepository userRepo;
+    private AsyncServices asyncServices;
+    private HawlScheduler hawlScheduler;
+
     @Override
     public void start(Stage stage) throws IOException {
-        // repositories
-        AssetFileRepository assetRepo = new AssetFileRepository();
-        UserFileRepository userRepo = new UserFileRepository();
+        // exchange rates, refreshed in the background from data/rates.csv, data/rates.json and -Dprospera.rates.url
+        List<ExchangeRateProvider> rateProviders = new ArrayList<>();
+        rateProviders.add(new FileExchangeRateProvider(Path.of("data/rates.csv")));
+        rateProviders.add(new FileExchangeRateProvider(Path.of("data/rates.json")));
+        String ratesUrl = System.getProperty("prospera.rates.url");
+        if (ratesUrl != null && !ratesUrl.isBlank()) {
+            rateProviders.add(new HttpExchangeRateProvider(URI.create(ratesUrl)));
+        }
+        rateRefresher = new ExchangeRateRefresher(rateProviders);
+        rateRefresher.start(15, TimeUnit.MINUTES);
+
+        // repositories, with one assets file per user split from data/assets.dat on first start
+        assetRepo = new PartitionedAssetRepository("data/assets", "data/assets.dat", ASSET_WRITE_BEHIND_WINDOW);
+        userRepo = new UserFileRepository(USER_WRITE_BEHIND_WINDOW);
+        // every asset value is also recorded in data/valuations.hist, and what each user holds in data/holdings/<userId>.hist
+        valuationHistory = new ValuationHistoryStore("data/valuations.hist");
+        holdingsHistory = new HoldingsHistoryStore("data/holdings");
+        ValuationRecordingAssetRepository recordedAssetRepo = new ValuationRecordingAssetRepository(assetRepo, valuationHistory, holdingsHistory);
 
         // services
+        AssetService assetService = new AssetService(recordedAssetRepo, valuationHistory, holdingsHistory);
         AuthService authService = new AuthService(userRepo);
-        AssetService assetService = new AssetService(assetRepo);
+        authService.addSessionListener(new AuthService.SessionListener() {
+            @Override
+            public void loggedIn(User user) {
+                assetRepo.load(user.getId());
+                recordedAssetRepo.track(user.getId());
+            }
+
+            @Override
+            public void loggedOut(User user) {
+                assetRepo.evict(user.getId());
+                holdingsHistory.evict(user.getId());
+                assetService.evictNetWorth(user.getId());
+            }
+        });
         ReportGenerationService reportService = new ReportGenerationService(assetRepo);
-        ZakatAndComplianceService zakatService = new ZakatAndComplianceService(assetRepo);
+        ZakatAndComplianceService zakatService = new ZakatAndComplianceService(assetRepo, assetService);
+
+        // the logged-in user is told when one of their assets completes its hawl, including while the app was closed
+        hawlScheduler = new HawlScheduler(zakatService, assetService, Platform::runLater, "data/hawl-notified.csv");
+        hawlScheduler.addHawlListener(notices -> showHawlNotices(stage, notices));
+        authService.addSessionListener(new AuthService.SessionListener() {
+            @Override
+            public void loggedIn(User user) {
+                hawlScheduler.track(user.getId());
+            }
+
+            @Override
+            public void loggedOut(User user) {
+                hawlScheduler.untrack(user.getId());
+            }
+        });
+        hawlScheduler.start();
+
+        // service calls made by the views run on virtual threads
+        asyncServices = new AsyncServices();
 
-        SceneManager sceneManager = new SceneManager(stage, authService, assetService, reportService, zakatService);
+        SceneManager sceneManager = new SceneManager(stage, authService, assetService, reportService, zakatService, asyncServices);
+        // parse the views opened from the dashboard while the user looks at it, unless -Dprospera.preloadViews=false
+        if (!"false".equalsIgnoreCase(System.getProperty("prospera.preloadViews"))) {
+            authService.addSessionListener(new AuthService.SessionListener() {
+                @Override
+                public void loggedIn(User user) {
+                    sceneManager.preloadViews(SceneManager.VIEWS_AFTER_LOGIN);
+                }
+
+                @Override
+                public void loggedOut(User user) {
+                }
+            });
+        }
 
         sceneManager.showAuthView();
         stage.setTitle("Prospera");
         stage.show();
     }
 
+    /**
+     * Shows the assets that completed their hawl, without blocking the current view
+     * @param owner : the window the message belongs to
+     * @param notices : the assets that completed their hawl
+     */
+    private static void showHawlNotices(Stage owner, List<HawlScheduler.HawlNotice> notices) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(owner);
+        alert.setTitle("Hawl Completed");
+        alert.setHeaderText(notices.size() == 1 ? "An asset completed its hawl and may now be due for zakat."
+                : notices.size() + " assets completed their hawl and may now be due for zakat.");
+        alert.setContentText(notices.stream()
+                .map(notice -> notice.assetName() + " (" + notice.hawlDate() + ")")
+                .collect(Collectors.joining("\n")));
+        alert.show();
+    }
+
+    @Override
+    public void stop() {
+        if (hawlScheduler != null) {
+            hawlScheduler.stop();
+        }
+        if (asyncServices != null) {
+            asyncServices.shutdown();
+        }
+        if (rateRefresher != null) {
+            rateRefresher.stop();
+        }
+        if (assetRepo != null) {
+            assetRepo.evictAll();
+        }
+        if (valuationHistory != null) {
+            valuationHistory.close();
+        }
+        if (holdingsHistory != null) {
+            holdingsHistory.close();
+        }
+        if (userRepo != null && !userRepo.awaitDurable(SHUTDOWN_FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.err.println("Timed out writing pending user changes");
+        }
+    }
+
     public static void main(String[] args) {
         launch();
     }
@@ -0,0 +1,182 @@
+package fcai.prospera;
+
+import javafx.application.Platform;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.ProgressIndicator;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs service calls off the JavaFX application thread, so repository I/O, scans and report generation never
+ * freeze the window.
+ * <p>
+ * Each call runs on its own virtual thread and returns a {@link CompletableFuture} that is completed on the
+ * JavaFX application thread, so callbacks attached with {@code thenAccept}, {@code exceptionally} or
+ * {@code whenComplete} may update the view directly. Cancelling the future interrupts the call. While a call runs,
+ * an optional progress indicator is shown and an optional label shows the call's progress messages.
+ */
+public class AsyncServices {
+    /**
+     * A service call to run in the background
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T call(Progress progress) throws Exception;
+    }
+
+    /**
+     * Lets a running call report its progress and check whether it was cancelled
+     */
+    public interface Progress {
+        /**
+         * Reports progress; updates are coalesced, so this may be called for every item processed
+         * @param done : the work done so far, or a negative number if unknown
+         * @param total : the total work
+         * @param message : a message for the status label, or null to keep the last one
+         */
+        void update(double done, double total, String message);
+
+        /**
+         * @return true if the call was cancelled and should stop
+         */
+        boolean isCancelled();
+    }
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("prospera-async-", 0).factory());
+
+    /**
+     * Runs a service call in the background
+     * @param work : the call
+     * @return a future completed with the call's result on the JavaFX application thread
+     */
+    public <T> CompletableFuture<T> submit(Work<T> work) {
+        return submit(work, null, null);
+    }
+
+    /**
+     * Runs a service call in the background, showing its progress while it runs
+     * @param work : the call
+     * @param indicator : shown while the call runs and updated with its progress, or null
+     * @param status : shows the call's progress messages while it runs, or null
+     * @return a future completed with the call's result on the JavaFX application thread; cancelling it interrupts the call
+     */
+    public <T> CompletableFuture<T> submit(Work<T> work, ProgressIndicator indicator, Labeled status) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ProgressView progress = new ProgressView(result, indicator, status);
+        progress.show();
+
+        Future<?> running = executor.submit(() -> {
+            try {
+                T value = work.call(progress);
+                Platform.runLater(() -> {
+                    progress.hide();
+                    result.complete(value);
+                });
+            }
+            catch (Throwable error) {
+                Platform.runLater(() -> {
+                    progress.hide();
+                    result.completeExceptionally(error);
+                });
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (error instanceof CancellationException) {
+                running.cancel(true);
+                runOnFxThread(progress::hide);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Interrupts every running call and stops accepting new ones
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void runOnFxThread(Runnable action) {
+        if (Platform.isFxApplicationThread()) {
+            action.run();
+        }
+        else {
+            Platform.runLater(action);
+        }
+    }
+
+    /**
+     * Mirrors the progress of a call onto an indicator and a label, with at most one pending UI update at a time
+     */
+    private static final class ProgressView implements Progress {
+        private final CompletableFuture<?> result;
+        private final ProgressIndicator indicator;
+        private final Labeled status;
+        private final AtomicReference<double[]> latestProgress = new AtomicReference<>();
+        private final AtomicReference<String> latestMessage = new AtomicReference<>();
+        private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+        ProgressView(CompletableFuture<?> result, ProgressIndicator indicator, Labeled status) {
+            this.result = result;
+            this.indicator = indicator;
+            this.status = status;
+        }
+
+        @Override
+        public void update(double done, double total, String message) {
+            latestProgress.set(new double[] {done, total});
+            if (message != null) {
+                latestMessage.set(message);
+            }
+            if ((indicator != null || status != null) && updateScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::render);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return result.isCancelled() || Thread.currentThread().isInterrupted();
+        }
+
+        private void render() {
+            updateScheduled.set(false);
+            if (result.isDone()) {
+                return;
+            }
+            double[] progress = latestProgress.get();
+            if (indicator != null && progress != null) {
+                indicator.setProgress(progress[0] < 0 || progress[1] <= 0 ? ProgressIndicator.INDETERMINATE_PROGRESS : progress[0] / progress[1]);
+            }
+            String message = latestMessage.get();
+            if (status != null && message != null) {
+                status.setText(message);
+            }
+        }
+
+        void show() {
+            runOnFxThread(() -> {
+                if (indicator != null) {
+                    indicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+                    indicator.setManaged(true);
+                    indicator.setVisible(true);
+                }
+            });
+        }
+
+        void hide() {
+            if (indicator != null) {
+                indicator.setVisible(false);
+                indicator.setManaged(false);
+            }
+            if (status != null) {
+                status.setText("");
+            }
+        }
+    }
+}
@@ -1,30 +1,78 @@
 package fcai.prospera;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * A utility class to handle currency conversion
+ * A utility class to handle currency conversion.
+ * <p>
+ * Rates are held in an immutable {@link ExchangeRateTable} that is replaced atomically,
+ * so rates can be refreshed from a background thread while other threads convert.
  */
 public class CurrencyConversion {
-    private static final Map<String, BigDecimal> conversionRates = new HashMap<>();
+    /**
+     * The code under which the price of one gram of gold is kept, in USD like any other rate
+     */
+    public static final String GOLD_CODE = "XAU";
+    /**
+     * The code under which the price of one gram of silver is kept, in USD like any other rate
+     */
+    public static final String SILVER_CODE = "XAG";
+
+    private static final AtomicReference<ExchangeRateTable> rateTable;
+
+    static {
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        rates.put("USD", BigDecimal.ONE);
+        rates.put("EUR", new BigDecimal("1.13"));
+        rates.put("GBP", new BigDecimal("1.33"));
+        rates.put("EGP", new BigDecimal("0.020"));
+        rateTable = new AtomicReference<>(ExchangeRateTable.of(1, rates));
+    }
 
     /**
-     * Adds a conversion rate to the conversion rates map (base rate is USD)
+     * Adds a conversion rate to the conversion rates (base rate is USD)
      * @param fromCode : the currency code to convert from
      * @param rate : the conversion rate
      */
     public static void addConversionRate(String fromCode, BigDecimal rate) {
-        conversionRates.put(fromCode, rate);
+        rateTable.updateAndGet(table -> table.withRate(fromCode, rate));
     }
 
-    static {
-        addConversionRate("USD", BigDecimal.ONE);
-        addConversionRate("EUR", new BigDecimal("1.13"));
-        addConversionRate("GBP", new BigDecimal("1.33"));
-        addConversionRate("EGP", new BigDecimal("0.020"));
+    /**
+     * Replaces all conversion rates at once (base rate is USD)
+     * @param rates : the new rates by currency code
+     * @return the published rate table
+     */
+    public static ExchangeRateTable publishRates(Map<String, BigDecimal> rates) {
+        return rateTable.updateAndGet(table -> ExchangeRateTable.of(table.getVersion() + 1, rates));
+    }
+
+    /**
+     * Adds or replaces several conversion rates at once (base rate is USD), keeping the other rates
+     * @param rates : the rates to add or replace by currency code
+     * @return the published rate table
+     */
+    public static ExchangeRateTable mergeRates(Map<String, BigDecimal> rates) {
+        return rateTable.updateAndGet(table -> table.withRates(rates));
+    }
+
+    /**
+     * Gets the current rate table, a consistent snapshot to use for several conversions
+     * @return the rate table
+     */
+    public static ExchangeRateTable getRateTable() {
+        return rateTable.get();
+    }
+
+    /**
+     * Gets the version of the conversion rates, which changes whenever a rate is added or replaced
+     * @return the rates version
+     */
+    public static long getVersion() {
+        return rateTable.get().getVersion();
     }
 
     /**
@@ -35,14 +83,21 @@ public class CurrencyConversion {
      * @return the converted amount
      */
     public static BigDecimal convert(String fromCode, String toCode, BigDecimal amount) {
-        BigDecimal fromRate = conversionRates.get(fromCode);
-        BigDecimal toRate = conversionRates.get(toCode);
+        return rateTable.get().convert(fromCode, toCode, amount);
+    }
 
-        if (fromRate == null || toRate == null) {
-            throw new IllegalArgumentException("Invalid currency codes: " + fromCode + " to " + toCode);
+    /**
+     * Gets the published price of one gram of a metal
+     * @param metalCode : {@link #GOLD_CODE} or {@link #SILVER_CODE}
+     * @param currencyCode : the currency code to price the metal in
+     * @return the price per gram, or null if no price has been published for the metal or the currency is unknown
+     */
+    public static BigDecimal getMetalPrice(String metalCode, String currencyCode) {
+        ExchangeRateTable table = rateTable.get();
+        if (!table.hasRate(metalCode) || !table.hasRate(currencyCode)) {
+            return null;
         }
-
-        return amount.multiply(fromRate).divide(toRate, 2, RoundingMode.HALF_UP);
+        return table.convert(metalCode, currencyCode, BigDecimal.ONE);
     }
 
 }
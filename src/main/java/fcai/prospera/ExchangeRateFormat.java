@@ -0,0 +1,80 @@
+package fcai.prospera;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the rate formats accepted by the exchange rate providers:
+ * <ul>
+ *     <li>CSV, one {@code code,rate} pair per line; blank lines, {@code #} comments and a header line are skipped</li>
+ *     <li>a flat JSON object, {@code {"EUR": 1.13, "XAU": "75.20"}}</li>
+ * </ul>
+ */
+final class ExchangeRateFormat {
+    private static final Pattern JSON_ENTRY = Pattern.compile("\"([A-Za-z]{3})\"\\s*:\\s*\"?([-+0-9.eE]+)\"?");
+
+    private ExchangeRateFormat() { }
+
+    /**
+     * Parses rates, guessing the format from the content
+     * @param content : the CSV or JSON text
+     * @return the rates by currency code
+     * @throws IOException : if a rate is not a valid positive number
+     */
+    static Map<String, BigDecimal> parse(String content) throws IOException {
+        return content.stripLeading().startsWith("{") ? parseJson(content) : parseCsv(content);
+    }
+
+    static Map<String, BigDecimal> parseCsv(String content) throws IOException {
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        String[] lines = content.split("\\R");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("[,;]");
+            if (fields.length < 2) {
+                throw new IOException("Line " + (i + 1) + ": expected code,rate but got \"" + line + "\"");
+            }
+            if (rates.isEmpty() && !startsWithDigit(fields[1].trim())) {
+                continue; // header
+            }
+            put(rates, fields[0].trim(), fields[1].trim());
+        }
+        return rates;
+    }
+
+    static Map<String, BigDecimal> parseJson(String content) throws IOException {
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        Matcher matcher = JSON_ENTRY.matcher(content);
+        while (matcher.find()) {
+            put(rates, matcher.group(1), matcher.group(2));
+        }
+        return rates;
+    }
+
+    private static void put(Map<String, BigDecimal> rates, String code, String value) throws IOException {
+        BigDecimal rate;
+        try {
+            rate = new BigDecimal(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Invalid rate for " + code + ": " + value);
+        }
+        if (rate.signum() <= 0) {
+            throw new IOException("Invalid rate for " + code + ": " + value);
+        }
+        rates.put(code.toUpperCase(Locale.ROOT), rate);
+    }
+
+    private static boolean startsWithDigit(String value) {
+        return !value.isEmpty() && (Character.isDigit(value.charAt(0)) || value.charAt(0) == '.');
+    }
+}
@@ -0,0 +1,26 @@
+package fcai.prospera;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * A source of exchange rates and metal prices, polled by {@link ExchangeRateRefresher}.
+ * <p>
+ * Rates are the USD value of one unit of each currency. Metal prices are given the same way under
+ * {@link CurrencyConversion#GOLD_CODE} and {@link CurrencyConversion#SILVER_CODE}, as the USD price of one gram.
+ */
+public interface ExchangeRateProvider {
+    /**
+     * Loads the rates if the source changed since the last successful load
+     * @return the rates by currency code, or null if the source is unchanged or not available
+     * @throws IOException : if the source could not be read or parsed
+     */
+    Map<String, BigDecimal> loadIfChanged() throws IOException;
+
+    /**
+     * A short description of the source, used in log messages
+     * @return the description
+     */
+    String getName();
+}
@@ -0,0 +1,101 @@
+package fcai.prospera;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls exchange rate providers on a background thread and publishes new rates to {@link CurrencyConversion}.
+ * <p>
+ * Rates are merged into a new rate table and swapped in atomically, so conversions never wait on the providers.
+ * The latest rates of every provider are kept, and whenever one of them changes all of them are merged again in
+ * provider order, so later providers override earlier ones for the same currency no matter which one changed last.
+ */
+public class ExchangeRateRefresher {
+    private final List<ExchangeRateProvider> providers;
+    // the last rates loaded from each provider, by provider position; guarded by itself
+    private final List<Map<String, BigDecimal>> latestRates;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param providers : the providers to poll
+     */
+    public ExchangeRateRefresher(List<ExchangeRateProvider> providers) {
+        this.providers = List.copyOf(providers);
+        this.latestRates = new ArrayList<>(this.providers.size());
+        for (int i = 0; i < this.providers.size(); i++) {
+            latestRates.add(null);
+        }
+    }
+
+    /**
+     * Starts polling the providers, immediately and then periodically
+     * @param period : the time between polls
+     * @param unit : the unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "exchange-rate-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, period, unit);
+    }
+
+    /**
+     * Stops polling the providers
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Polls every provider once and publishes the rates of those that changed
+     * @return true if new rates were published, false otherwise
+     */
+    public boolean refresh() {
+        List<Map<String, BigDecimal>> changed = new ArrayList<>(providers.size());
+        boolean anyChanged = false;
+        for (ExchangeRateProvider provider : providers) {
+            Map<String, BigDecimal> rates = null;
+            try {
+                rates = provider.loadIfChanged();
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.println("Error loading exchange rates from " + provider.getName() + ": " + e.getMessage());
+            }
+            boolean loaded = rates != null && !rates.isEmpty();
+            changed.add(loaded ? rates : null);
+            anyChanged |= loaded;
+        }
+        if (!anyChanged) {
+            return false;
+        }
+
+        synchronized (latestRates) {
+            Map<String, BigDecimal> merged = new HashMap<>();
+            for (int i = 0; i < providers.size(); i++) {
+                if (changed.get(i) != null) {
+                    latestRates.set(i, changed.get(i));
+                }
+                if (latestRates.get(i) != null) {
+                    merged.putAll(latestRates.get(i));
+                }
+            }
+            CurrencyConversion.mergeRates(merged);
+        }
+        return true;
+    }
+}
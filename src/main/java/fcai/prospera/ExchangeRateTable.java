@@ -0,0 +1,129 @@
+package fcai.prospera;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * An immutable snapshot of conversion rates (base rate is USD) with a precomputed cross-rate matrix,
+ * so converting between any two currencies is a single multiplication.
+ */
+public final class ExchangeRateTable {
+    private static final MathContext CROSS_RATE_PRECISION = MathContext.DECIMAL128;
+
+    private final long version;
+    private final Map<String, Integer> indexByCode;
+    private final BigDecimal[] rates;
+    private final BigDecimal[][] crossRates;
+
+    private ExchangeRateTable(long version, Map<String, BigDecimal> rates) {
+        this.version = version;
+        this.indexByCode = new HashMap<>();
+        this.rates = new BigDecimal[rates.size()];
+        int index = 0;
+        for (Map.Entry<String, BigDecimal> entry : rates.entrySet()) {
+            indexByCode.put(entry.getKey(), index);
+            this.rates[index++] = entry.getValue();
+        }
+
+        this.crossRates = new BigDecimal[this.rates.length][this.rates.length];
+        for (int from = 0; from < this.rates.length; from++) {
+            for (int to = 0; to < this.rates.length; to++) {
+                crossRates[from][to] = from == to ? BigDecimal.ONE
+                        : this.rates[from].divide(this.rates[to], CROSS_RATE_PRECISION);
+            }
+        }
+    }
+
+    /**
+     * Creates a rate table
+     * @param version : the version of the table
+     * @param rates : the USD rate of each currency code
+     * @return the rate table
+     */
+    public static ExchangeRateTable of(long version, Map<String, BigDecimal> rates) {
+        for (Map.Entry<String, BigDecimal> entry : rates.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null || entry.getValue().signum() <= 0) {
+                throw new IllegalArgumentException("Invalid conversion rate: " + entry.getKey() + " = " + entry.getValue());
+            }
+        }
+        return new ExchangeRateTable(version, new LinkedHashMap<>(rates));
+    }
+
+    /**
+     * Creates a copy of this table with one rate added or replaced and the next version number
+     * @param code : the currency code
+     * @param rate : the USD rate
+     * @return the new rate table
+     */
+    public ExchangeRateTable withRate(String code, BigDecimal rate) {
+        return withRates(Map.of(code, rate));
+    }
+
+    /**
+     * Creates a copy of this table with several rates added or replaced and the next version number
+     * @param rates : the USD rate of each currency code to add or replace
+     * @return the new rate table
+     */
+    public ExchangeRateTable withRates(Map<String, BigDecimal> rates) {
+        Map<String, BigDecimal> newRates = getRates();
+        newRates.putAll(rates);
+        return of(version + 1, newRates);
+    }
+
+    /**
+     * Gets the version of this table, which grows every time a new table is published
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks whether the table has a rate for a currency
+     * @param code : the currency code
+     * @return true if the currency is known
+     */
+    public boolean hasRate(String code) {
+        return indexByCode.containsKey(code);
+    }
+
+    /**
+     * Gets the USD rate of every currency in the table
+     * @return a copy of the rates
+     */
+    public Map<String, BigDecimal> getRates() {
+        Map<String, BigDecimal> result = new LinkedHashMap<>();
+        indexByCode.forEach((code, index) -> result.put(code, rates[index]));
+        return result;
+    }
+
+    /**
+     * Gets the factor that converts amounts from one currency to another
+     * @param fromCode : the currency code to convert from
+     * @param toCode : the currency code to convert to
+     * @return the cross rate
+     */
+    public BigDecimal getCrossRate(String fromCode, String toCode) {
+        Integer from = indexByCode.get(fromCode);
+        Integer to = indexByCode.get(toCode);
+
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Invalid currency codes: " + fromCode + " to " + toCode);
+        }
+
+        return crossRates[from][to];
+    }
+
+    /**
+     * Converts an amount from one currency to another
+     * @param fromCode : the currency code to convert from
+     * @param toCode : the currency code to convert to
+     * @param amount : the amount to convert
+     * @return the converted amount, rounded to two decimal places
+     */
+    public BigDecimal convert(String fromCode, String toCode, BigDecimal amount) {
+        return amount.multiply(getCrossRate(fromCode, toCode)).setScale(2, RoundingMode.HALF_UP);
+    }
+}
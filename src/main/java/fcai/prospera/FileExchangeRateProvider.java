@@ -0,0 +1,54 @@
+package fcai.prospera;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * Loads rates from a CSV or JSON file dropped on the local disk.
+ * The file is only read again when its modification time or size changes.
+ */
+public class FileExchangeRateProvider implements ExchangeRateProvider {
+    private final Path path;
+    private long lastModified = -1;
+    private long lastSize = -1;
+
+    /**
+     * @param path : the rates file
+     */
+    public FileExchangeRateProvider(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public synchronized Map<String, BigDecimal> loadIfChanged() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        if (modified == lastModified && size == lastSize) {
+            return null;
+        }
+
+        Map<String, BigDecimal> rates = ExchangeRateFormat.parse(Files.readString(path, StandardCharsets.UTF_8));
+        lastModified = modified;
+        lastSize = size;
+        return rates;
+    }
+
+    @Override
+    public String getName() {
+        return path.toString();
+    }
+}
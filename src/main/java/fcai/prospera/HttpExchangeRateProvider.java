@@ -0,0 +1,69 @@
+package fcai.prospera;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Loads rates in CSV or JSON from an HTTP endpoint, such as a local stand-in for a rates feed.
+ * Requests are conditional on the last response's ETag and Last-Modified headers, so an unchanged
+ * feed answers 304 Not Modified without a body.
+ */
+public class HttpExchangeRateProvider implements ExchangeRateProvider {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final URI uri;
+    private final HttpClient client;
+    private String etag;
+    private String lastModified;
+
+    /**
+     * @param uri : the endpoint serving the rates
+     */
+    public HttpExchangeRateProvider(URI uri) {
+        this.uri = uri;
+        this.client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    @Override
+    public synchronized Map<String, BigDecimal> loadIfChanged() throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET();
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+
+        HttpResponse<String> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching rates from " + uri, e);
+        }
+
+        if (response.statusCode() == 304) {
+            return null;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected status " + response.statusCode() + " from " + uri);
+        }
+
+        Map<String, BigDecimal> rates = ExchangeRateFormat.parse(response.body());
+        etag = response.headers().firstValue("ETag").orElse(null);
+        lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        return rates;
+    }
+
+    @Override
+    public String getName() {
+        return uri.toString();
+    }
+}
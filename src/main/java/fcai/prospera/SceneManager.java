@@ -17,26 +17,48 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
  * A class to manage switching stages between different views
+ * <p>
+ * Each FXML file is loaded once and its root and controller are kept, so navigating back to a view only
+ * re-initializes its controller. Views can also be loaded ahead of time in the background with {@link #preloadViews(String...)}.
  */
 public class SceneManager {
+    /**
+     * The views likely to be opened right after login
+     */
+    public static final String[] VIEWS_AFTER_LOGIN = {"assets.fxml", "zakat.fxml", "reports.fxml", "zakat-select-assets.fxml", "zakat-result.fxml"};
+
+    /**
+     * A loaded FXML file
+     * @param root : the root node of the view
+     * @param controller : the controller of the view
+     */
+    private record View(Parent root, Object controller) { }
+
     private final Stage stage;
+    // loaded views by FXML file, only accessed on the JavaFX application thread
+    private final Map<String, View> views = new HashMap<>();
 
     private final AuthService authService;
     private final AssetService assetService;
     private final ReportGenerationService reportService;
     private final ZakatAndComplianceService zakatService;
+    private final AsyncServices asyncServices;
 
     public SceneManager(Stage stage, AuthService authService, AssetService assetService,
-                        ReportGenerationService reportService, ZakatAndComplianceService zakatService) {
+                        ReportGenerationService reportService, ZakatAndComplianceService zakatService,
+                        AsyncServices asyncServices) {
         this.stage = stage;
         this.authService = authService;
         this.assetService = assetService;
         this.reportService = reportService;
         this.zakatService = zakatService;
+        this.asyncServices = asyncServices;
 
         // Initialize assetViewInstance here if you have a concrete implementation
         // e.g., this.assetViewInstance = new DefaultAssetView();
@@ -45,11 +67,35 @@ public class SceneManager {
 
     /**
      * Switches to a new scene using the provided FXML file and controller injector.
+     * The FXML file is loaded the first time only; afterward its cached view is reused and its controller re-initialized.
      * @param fxmlFile : the FXML file to load
      * @param controllerInjector : the controller injector
      * @throws IOException : if an I/O error occurs
      */
     private void switchScene(String fxmlFile, Consumer<Object> controllerInjector) throws IOException {
+        View view = views.get(fxmlFile);
+        if (view == null) {
+            view = loadView(fxmlFile);
+            views.put(fxmlFile, view);
+        }
+        controllerInjector.accept(view.controller());
+
+        if (stage.getScene() == null) {
+            stage.setScene(new Scene(view.root()));
+        } else if (stage.getScene().getRoot() != view.root()) {
+            stage.getScene().setRoot(view.root());
+        }
+        stage.sizeToScene(); // Optional: Adjust stage size to scene
+        // stage.centerOnScreen(); // Optional
+    }
+
+    /**
+     * Loads an FXML file and its controller. The view is not attached to a scene, so this may run on any thread.
+     * @param fxmlFile : the FXML file to load
+     * @return the loaded view
+     * @throws IOException : if an I/O error occurs
+     */
+    private View loadView(String fxmlFile) throws IOException {
         // Assuming fxmlFile is just the filename e.g. "assets.fxml"
         // and FXML files are in the same package as SceneManager or a subpackage.
         // For fcai.prospera.assets.fxml, path would be "assets.fxml"
@@ -73,15 +119,27 @@ public class SceneManager {
             throw new IOException("Controller not found for FXML: " + fxmlResourcePath +
                     ". Check fx:controller in FXML and controller class existence.");
         }
-        controllerInjector.accept(controller);
+        return new View(root, controller);
+    }
 
-        if (stage.getScene() == null) {
-            stage.setScene(new Scene(root));
-        } else {
-            stage.getScene().setRoot(root);
+    /**
+     * Loads views in the background so that switching to them later does not wait for their FXML to be parsed.
+     * Views already loaded are skipped, and a view switched to before it finishes loading is loaded normally.
+     * Must be called on the JavaFX application thread.
+     * @param fxmlFiles : the FXML files to load
+     */
+    public void preloadViews(String... fxmlFiles) {
+        for (String fxmlFile : fxmlFiles) {
+            if (views.containsKey(fxmlFile)) {
+                continue;
+            }
+            asyncServices.submit(progress -> loadView(fxmlFile))
+                    .thenAccept(view -> views.putIfAbsent(fxmlFile, view))
+                    .exceptionally(error -> {
+                        System.err.println("Error preloading " + fxmlFile + ": " + error.getMessage());
+                        return null;
+                    });
         }
-        stage.sizeToScene(); // Optional: Adjust stage size to scene
-        // stage.centerOnScreen(); // Optional
     }
 
     /**
@@ -173,4 +231,11 @@ public class SceneManager {
     public Window getStage() {
         return stage;
     }
+
+    /**
+     * @return the facade the views run their service calls through
+     */
+    public AsyncServices getAsyncServices() {
+        return asyncServices;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package fcai.prospera;
+
+import fcai.prospera.repository.PartitionedAssetRepository;
+import fcai.prospera.repository.UserFileRepository;
+import fcai.prospera.service.ZakatBatchJob;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the zakat batch job from the command line, without the user interface, over the application's data directory.
+ * <p>
+ * Usage: {@code ZakatBatchRunner <output.csv|output.xlsx> [currency] [gold price per gram] [silver price per gram]}.
+ * The currency defaults to EGP and the metal prices to the published prices in that currency. Interrupting the
+ * process (Ctrl+C) cancels the run and keeps the rows written so far.
+ */
+public class ZakatBatchRunner {
+    private static final String DEFAULT_CURRENCY = "EGP";
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SHUTDOWN_WAIT_MILLIS = 30_000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: ZakatBatchRunner <output.csv|output.xlsx> [currency] [gold price per gram] [silver price per gram]");
+            System.exit(2);
+        }
+        Path output = Path.of(args[0]);
+        String currencyCode = args.length > 1 ? args[1].trim().toUpperCase(Locale.ROOT) : DEFAULT_CURRENCY;
+
+        // the same rate sources as the application, read once
+        List<ExchangeRateProvider> rateProviders = new ArrayList<>();
+        rateProviders.add(new FileExchangeRateProvider(Path.of("data/rates.csv")));
+        rateProviders.add(new FileExchangeRateProvider(Path.of("data/rates.json")));
+        String ratesUrl = System.getProperty("prospera.rates.url");
+        if (ratesUrl != null && !ratesUrl.isBlank()) {
+            rateProviders.add(new HttpExchangeRateProvider(URI.create(ratesUrl)));
+        }
+        new ExchangeRateRefresher(rateProviders).refresh();
+
+        BigDecimal goldPrice = args.length > 2 ? new BigDecimal(args[2]) : CurrencyConversion.getMetalPrice(CurrencyConversion.GOLD_CODE, currencyCode);
+        BigDecimal silverPrice = args.length > 3 ? new BigDecimal(args[3]) : CurrencyConversion.getMetalPrice(CurrencyConversion.SILVER_CODE, currencyCode);
+        if (goldPrice == null || silverPrice == null) {
+            System.err.println("No published gold and silver prices in " + currencyCode + "; pass them as arguments");
+            System.exit(2);
+        }
+
+        PartitionedAssetRepository assetRepo = new PartitionedAssetRepository("data/assets", "data/assets.dat", null);
+        UserFileRepository userRepo = new UserFileRepository();
+        ZakatBatchJob job = new ZakatBatchJob(userRepo, assetRepo);
+
+        Thread runner = Thread.currentThread();
+        Thread cancelOnExit = new Thread(() -> {
+            runner.interrupt();
+            try {
+                runner.join(SHUTDOWN_WAIT_MILLIS);
+            }
+            catch (InterruptedException ignored) {
+                // exiting anyway
+            }
+        }, "zakat-batch-cancel");
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+
+        long[] lastReport = {System.nanoTime()};
+        ZakatBatchJob.BatchResult result;
+        try {
+            result = job.run(output, currencyCode, goldPrice, silverPrice, (done, total, failed) -> {
+                long now = System.nanoTime();
+                if (done == total || now - lastReport[0] >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport[0] = now;
+                    System.err.printf("%,d / %,d users, %,d failed%n", done, total, failed);
+                }
+            });
+        }
+        finally {
+            assetRepo.evictAll();
+        }
+
+        System.err.printf("%s: %,d users written to %s, %,d failed%n",
+                result.cancelled() ? "Cancelled" : "Done", result.users(), output, result.failed());
+        if (result.cancelled()) {
+            // the JVM is already shutting down, and the shutdown hook is waiting for this thread to end
+            return;
+        }
+        Runtime.getRuntime().removeShutdownHook(cancelOnExit);
+        System.exit(result.failed() > 0 ? 1 : 0);
+    }
+}
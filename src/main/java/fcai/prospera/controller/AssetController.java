@@ -1,11 +1,15 @@
 package fcai.prospera.controller;
 
+import fcai.prospera.AsyncServices;
 import fcai.prospera.CurrencyComboBox;
 import fcai.prospera.CurrencyConversion;
 import fcai.prospera.CurrencyItem;
 import fcai.prospera.SceneManager;
 import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetRecord;
 import fcai.prospera.model.AssetType;
+import fcai.prospera.service.AssetChangeEvent;
+import fcai.prospera.service.AssetImportService;
 import fcai.prospera.service.AssetService;
 import fcai.prospera.service.AuthService;
 
@@ -19,17 +23,25 @@ import javafx.geometry.Insets;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.stage.FileChooser;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Currency;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller for managing the asset view.
@@ -38,8 +50,10 @@ import java.util.UUID;
  */
 public class AssetController {
     private AssetService assetService;
+    private AssetImportService assetImportService;
     private AuthService authService;
     private SceneManager sceneManager;
+    private AsyncServices asyncServices;
 
     @FXML private TableView<Asset> assetTable;
     @FXML private TableColumn<Asset, String> nameColumn;
@@ -54,10 +68,20 @@ public class AssetController {
     @FXML private CurrencyComboBox netWorthCurrencyComboBox;
 
     @FXML private Button addButton;
+    @FXML private Button importButton;
     @FXML private Button refreshButton;
+    @FXML private Button cancelImportButton;
+    @FXML private ProgressBar importProgressBar;
+    @FXML private Label importStatusLabel;
+    @FXML private ProgressIndicator loadingIndicator;
     @FXML private Button returnToDashBoard;
 
     private ObservableList<Asset> assetsList = FXCollections.observableArrayList();
+    private final Map<UUID, Asset> rowsById = new HashMap<>();
+    private final AssetService.AssetChangeListener changeListener = this::onAssetsChanged;
+    private CompletableFuture<List<Asset>> pendingLoad;
+    private CompletableFuture<BigDecimal> pendingNetWorth;
+    private CompletableFuture<AssetImportService.ImportResult> pendingImport;
     private static final String DEFAULT_NET_WORTH_CURRENCY = "USD";
 
     /**
@@ -126,12 +150,25 @@ public class AssetController {
                 }
             });
         }
+
+        if (assetTable != null) {
+            assetTable.setItems(assetsList);
+            // follow asset changes only while the view is shown, so a cached or replaced view is not updated in the background
+            assetTable.sceneProperty().addListener((observable, oldScene, newScene) -> {
+                if (assetService == null) return;
+                if (newScene != null) {
+                    assetService.addAssetChangeListener(changeListener);
+                } else {
+                    assetService.removeAssetChangeListener(changeListener);
+                }
+            });
+        }
     }
 
     /**
      * Initializes the controller with necessary services and managers.
-     * This method should be called after the FXML view is loaded and controller instance is created.
-     * It sets up the asset table with data and refreshes the asset list.
+     * This method is called every time the view is shown, including when the view is reused from the
+     * {@link SceneManager} cache, so it clears the rows of the previous visit before refreshing the asset list.
      *
      * @param sceneManager The {@link SceneManager} for view navigation.
      * @param authService The {@link AuthService} for user authentication.
@@ -141,8 +178,15 @@ public class AssetController {
         this.sceneManager = sceneManager;
         this.authService = authService;
         this.assetService = assetService;
+        this.asyncServices = sceneManager.getAsyncServices();
+        this.assetImportService = assetService != null ? new AssetImportService(assetService) : null;
         if (assetTable != null) {
-            assetTable.setItems(assetsList);
+            rowsById.clear();
+            assetsList.clear();
+            if (netWorthLabel != null) netWorthLabel.setText("");
+            if (assetService != null && assetTable.getScene() != null) {
+                assetService.addAssetChangeListener(changeListener);
+            }
             refreshAssets();
         } else {
             System.err.println("AssetController.init(): assetTable is null.");
@@ -183,12 +227,17 @@ public class AssetController {
      *
      * @param userId The ID of the user whose net worth is to be calculated.
      *               If {@code null}, or if services are unavailable, "N/A" is displayed.
+     *               A calculation still running for an earlier call is cancelled, so its result never replaces a newer one.
      */
     private void updateNetWorth(UUID userId) {
         if (netWorthLabel == null || netWorthCurrencyComboBox == null) {
             System.err.println("Net worth UI components not initialized.");
             return;
         }
+        if (pendingNetWorth != null) {
+            pendingNetWorth.cancel(true);
+            pendingNetWorth = null;
+        }
         if (userId == null || authService == null || authService.getCurrentUser() == null) {
             netWorthLabel.setText("N/A");
             return;
@@ -207,13 +256,27 @@ public class AssetController {
             netWorthCurrencyComboBox.setValue(fallbackItem);
             if(fallbackItem != null) displayCurrencyCode = fallbackItem.getCode();
         }
-        BigDecimal netWorthInSelectedCurrency = assetService.calculateUserNetWorthInBase(userId, displayCurrencyCode);
-        netWorthLabel.setText(String.format("%.2f %s", netWorthInSelectedCurrency, displayCurrencyCode));
+        String currencyCode = displayCurrencyCode;
+        CompletableFuture<BigDecimal> netWorth = asyncServices.submit(progress -> assetService.calculateUserNetWorthInBase(userId, currencyCode));
+        pendingNetWorth = netWorth;
+        netWorth.thenAccept(netWorthInSelectedCurrency -> {
+            if (pendingNetWorth != netWorth) return;
+            pendingNetWorth = null;
+            netWorthLabel.setText(String.format("%.2f %s", netWorthInSelectedCurrency, currencyCode));
+        }).exceptionally(error -> {
+            if (netWorth.isCancelled() || pendingNetWorth != netWorth) return null;
+            pendingNetWorth = null;
+            System.err.println("Error calculating net worth: " + error.getMessage());
+            netWorthLabel.setText("N/A (Calculation failed)");
+            return null;
+        });
     }
 
     /**
      * Refreshes the list of assets displayed in the table for the current user.
-     * It fetches assets from the {@link AssetService} and updates the net worth.
+     * It fetches assets from the {@link AssetService} in the background, cancelling any
+     * earlier fetch still running, and updates the net worth. The rows are detached copies built from asset
+     * records, so updating them never touches the assets held by the repository.
      * If no user is logged in or the service is unavailable, the table is cleared
      * and net worth is updated accordingly.
      */
@@ -229,16 +292,83 @@ public class AssetController {
             updateNetWorth(currentUserId);
             return;
         }
-        List<Asset> userAssets = assetService.getAssets(currentUserId);
-        assetsList.setAll(userAssets);
+        if (pendingLoad != null) pendingLoad.cancel(true);
+        pendingLoad = asyncServices.submit(progress -> assetService.getAssetRecords(currentUserId).stream().map(Asset::fromRecord).toList(),
+                loadingIndicator, null);
+        pendingLoad.thenAccept(userAssets -> {
+            rowsById.clear();
+            for (Asset asset : userAssets) {
+                rowsById.put(asset.getId(), asset);
+            }
+            assetsList.setAll(userAssets);
+            updateNetWorth(currentUserId);
+        }).exceptionally(error -> {
+            if (!pendingLoad.isCancelled()) showErrorAlert("Load Failed", "Could not load assets: " + error.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Receives asset changes from the {@link AssetService}, on whatever thread made them,
+     * and applies them on the JavaFX application thread.
+     *
+     * @param events The changes of one operation.
+     */
+    private void onAssetsChanged(List<AssetChangeEvent> events) {
+        if (Platform.isFxApplicationThread()) {
+            applyAssetChanges(events);
+        } else {
+            Platform.runLater(() -> applyAssetChanges(events));
+        }
+    }
+
+    /**
+     * Applies asset changes to the table row by row instead of reloading all assets,
+     * then updates the net worth, whose per-currency sums the service keeps up to date.
+     * Rows are built and updated from the records carried by the events, without calling back into the service.
+     *
+     * @param events The changes to apply.
+     */
+    private void applyAssetChanges(List<AssetChangeEvent> events) {
+        UUID currentUserId = (authService != null && authService.getCurrentUser() != null) ? authService.getCurrentUser().getId() : null;
+        if (currentUserId == null) return;
+
+        List<Asset> addedRows = new ArrayList<>();
+        Set<Asset> removedRows = new HashSet<>();
+        for (AssetChangeEvent event : events) {
+            if (!event.affects(currentUserId)) continue;
+            AssetRecord after = event.after();
+            Asset row = rowsById.get(event.assetId());
+            if (after == null || !currentUserId.equals(after.userId())) {
+                if (row != null) {
+                    rowsById.remove(event.assetId());
+                    removedRows.add(row);
+                }
+            } else if (row == null) {
+                Asset added = Asset.fromRecord(after);
+                rowsById.put(added.getId(), added);
+                addedRows.add(added);
+            } else if (event.type() == AssetChangeEvent.Type.VALUE_CHANGED) {
+                row.setCurrentValue(after.currentValue());
+            } else {
+                row.setName(after.name());
+                row.setType(after.type());
+                row.setPurchasePrice(after.purchasePrice());
+                row.setPurchaseDate(after.purchaseDate() != null ? Date.from(after.purchaseDate()) : null);
+                row.setCurrentValue(after.currentValue());
+                row.setCurrency(after.currency());
+            }
+        }
+        if (!removedRows.isEmpty()) assetsList.removeAll(removedRows);
+        if (!addedRows.isEmpty()) assetsList.addAll(addedRows);
         updateNetWorth(currentUserId);
     }
 
     /**
      * Handles the action of clicking the "Delete" button for an asset in the table.
      * It prompts the user for confirmation before attempting to remove the asset
-     * via the {@link AssetService}. If successful, it calls {@link #assetsChanged()}
-     * to refresh the view.
+     * via the {@link AssetService}. If successful, the table is updated by the
+     * resulting change event.
      *
      * @param assetToRemove The {@link Asset} object to be removed.
      */
@@ -254,12 +384,13 @@ public class AssetController {
 
         confirmationDialog.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                if (assetService.removeAsset(assetToRemove.getId())) {
-                    assetsChanged();
-                    System.out.println("Asset removed successfully: " + assetToRemove.getName());
-                } else {
-                    showErrorAlert("Deletion Failed", "Could not delete the asset: " + assetToRemove.getName());
-                }
+                asyncServices.submit(progress -> assetService.removeAsset(assetToRemove.getId())).thenAccept(removed -> {
+                    if (removed) {
+                        System.out.println("Asset removed successfully: " + assetToRemove.getName());
+                    } else {
+                        showErrorAlert("Deletion Failed", "Could not delete the asset: " + assetToRemove.getName());
+                    }
+                });
             }
         });
     }
@@ -268,7 +399,7 @@ public class AssetController {
      * Handles the action of clicking the "Edit" button for an asset in the table.
      * It opens a dialog pre-filled with the asset's current details, allowing the user
      * to modify them. If changes are saved, the asset is updated via the
-     * {@link AssetService}, and {@link #assetsChanged()} is called to refresh the view.
+     * {@link AssetService}, and the table is updated by the resulting change event.
      * The dialog includes currency conversion if the currency is changed.
      *
      * @param assetToEdit The {@link Asset} object to be edited.
@@ -341,20 +472,17 @@ public class AssetController {
             return null;
         });
         Optional<Asset> result = dialog.showAndWait();
-        result.ifPresent(editedAssetData -> {
-            if (assetService.updateAsset(assetToEdit.getId(), editedAssetData)) {
-                assetsChanged();
-            } else {
-                showErrorAlert("Update Failed", "Could not update the asset.");
-            }
-        });
+        result.ifPresent(editedAssetData -> asyncServices.submit(progress -> assetService.updateAsset(assetToEdit.getId(), editedAssetData))
+                .thenAccept(updated -> {
+                    if (!updated) showErrorAlert("Update Failed", "Could not update the asset.");
+                }));
     }
 
     /**
      * Adds a new asset using the provided {@link Asset} object.
      * This method is typically called after an asset is created through a form/dialog.
-     * It uses the {@link AssetService} to add the asset and then calls
-     * {@link #assetsChanged()} to refresh the view.
+     * It uses the {@link AssetService} to add the asset; the table is updated by the
+     * resulting change event.
      *
      * @param asset The {@link Asset} object to be added.
      */
@@ -363,11 +491,9 @@ public class AssetController {
             showErrorAlert("Service Error", "Asset service not initialized.");
             return;
         }
-        if (assetService.addAsset(asset)) {
-            assetsChanged();
-        } else {
-            showErrorAlert("Add Failed", "Could not add the asset.");
-        }
+        asyncServices.submit(progress -> assetService.addAsset(asset)).thenAccept(added -> {
+            if (!added) showErrorAlert("Add Failed", "Could not add the asset.");
+        });
     }
 
     /**
@@ -445,6 +571,68 @@ public class AssetController {
         result.ifPresent(this::addAssetViaForm);
     }
 
+    /**
+     * Handles the action of clicking the "Import" button.
+     * Lets the user pick a CSV or XLSX file and imports its assets in the background with
+     * {@link AssetImportService}, showing the progress in the toolbar and a summary when done.
+     */
+    @FXML
+    private void handleImportAssets() {
+        if (authService == null || authService.getCurrentUser() == null) {
+            showErrorAlert("Authentication Error", "No current user."); return;
+        }
+        if (assetImportService == null) {
+            showErrorAlert("Service Error", "Asset service not initialized."); return;
+        }
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import Assets");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Spreadsheets (*.csv, *.xlsx)", "*.csv", "*.xlsx"),
+                new FileChooser.ExtensionFilter("CSV (*.csv)", "*.csv"),
+                new FileChooser.ExtensionFilter("Excel workbook (*.xlsx)", "*.xlsx"));
+        File file = fileChooser.showOpenDialog(sceneManager != null ? sceneManager.getStage() : null);
+        if (file == null) return;
+
+        UUID userId = authService.getCurrentUser().getId();
+        importButton.setDisable(true);
+        cancelImportButton.setManaged(true);
+        cancelImportButton.setVisible(true);
+        pendingImport = asyncServices.submit(progress -> assetImportService.importFile(file.toPath(), userId, (rowsRead, imported, rejected) ->
+                progress.update(-1, 0, String.format("%,d rows read, %,d imported, %,d rejected", rowsRead, imported, rejected))),
+                importProgressBar, importStatusLabel);
+
+        pendingImport.whenComplete((result, error) -> {
+            importButton.setDisable(false);
+            cancelImportButton.setVisible(false);
+            cancelImportButton.setManaged(false);
+            if (pendingImport.isCancelled()) return;
+            if (error != null) {
+                showErrorAlert("Import Failed", "Could not import " + file.getName() + ": " + error.getMessage());
+                return;
+            }
+            StringBuilder summary = new StringBuilder(String.format("Imported %,d assets, rejected %,d rows.", result.imported(), result.rejected()));
+            if (!result.errors().isEmpty()) {
+                summary.append("\n\n").append(String.join("\n", result.errors().subList(0, Math.min(10, result.errors().size()))));
+                if (result.errors().size() > 10) summary.append("\n...");
+            }
+            Alert alert = new Alert(result.rejected() > 0 ? Alert.AlertType.WARNING : Alert.AlertType.INFORMATION);
+            alert.setTitle("Import Complete");
+            alert.setHeaderText(null);
+            alert.setContentText(summary.toString());
+            alert.showAndWait();
+        });
+    }
+
+    /**
+     * Handles the action of clicking the "Cancel" button shown during an import.
+     * Stops the import; the batches already committed are kept.
+     */
+    @FXML
+    private void handleCancelImport() {
+        if (pendingImport != null) pendingImport.cancel(true);
+    }
+
     /**
      * Handles the action of clicking the "Refresh" button.
      * Calls {@link #refreshAssets()} to update the displayed asset list and net worth.
@@ -41,13 +41,20 @@ public class AuthController {
     public PasswordField password_field;
 
     /**
-     * Initializes the controller
+     * Initializes the controller, clearing whatever was entered the last time the view was shown
      * @param sceneManager : the scene manager
      * @param authService : the authentication service
      */
     public void init(SceneManager sceneManager, AuthService authService) {
         this.sceneManager = sceneManager;
         this.authService = authService;
+
+        for (Label label : new Label[] {error_label, username_error, email_error, password_error}) {
+            if (label != null) label.setText("");
+        }
+        for (TextField field : new TextField[] {username_field, email_field, password_field}) {
+            if (field != null) field.clear();
+        }
     }
 
     /**
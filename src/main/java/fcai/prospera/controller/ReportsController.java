@@ -1,5 +1,6 @@
 package fcai.prospera.controller;
 
+import fcai.prospera.AsyncServices;
 import fcai.prospera.SceneManager;
 import fcai.prospera.model.Report;
 import fcai.prospera.model.ReportType;
@@ -7,11 +8,16 @@ import fcai.prospera.model.User;
 import fcai.prospera.service.ReportGenerationService;
 import fcai.prospera.service.AuthService;
 import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.stage.FileChooser;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A controller for reports view. Coordinates between reports view and report generation service
@@ -20,6 +26,14 @@ public class ReportsController {
     private SceneManager sceneManager;
     private ReportGenerationService reportService;
     private AuthService authService;
+    private AsyncServices asyncServices;
+    private CompletableFuture<?> pendingWork;
+
+    @FXML private Button generatePdfButton;
+    @FXML private Button generateExcelButton;
+    @FXML private Button cancelButton;
+    @FXML private ProgressIndicator progressIndicator;
+    @FXML private Label statusLabel;
 
     /**
      * Initializes the reports' controller.
@@ -31,6 +45,7 @@ public class ReportsController {
         this.sceneManager = sceneManager;
         this.reportService = reportService;
         this.authService = authService;
+        this.asyncServices = sceneManager.getAsyncServices();
     }
 
     /**
@@ -39,9 +54,7 @@ public class ReportsController {
      */
     @FXML
     private void handleGeneratePDF() {
-        User currentUser = authService.getCurrentUser();
-        Report report = reportService.generateReport(currentUser, ReportType.PORTFOLIO, "PDF");
-        saveReportToFile(report, "PortfolioReport.pdf");
+        generateReport("PDF", "PortfolioReport.pdf");
     }
 
     /**
@@ -50,9 +63,43 @@ public class ReportsController {
      */
     @FXML
     private void handleGenerateExcel() {
-        User currentUserId = authService.getCurrentUser();
-        Report report = reportService.generateReport(currentUserId, ReportType.PORTFOLIO, "Excel");
-        saveReportToFile(report, "PortfolioReport.xlsx");
+        generateReport("Excel", "PortfolioReport.xlsx");
+    }
+
+    /**
+     * Handles the "Cancel" button click event, stopping the report being generated or saved.
+     */
+    @FXML
+    private void handleCancel() {
+        if (pendingWork != null) pendingWork.cancel(true);
+    }
+
+    /**
+     * Generates a portfolio report for the current user in the background, then prompts the user to save it.
+     * @param format : the report format
+     * @param defaultFileName : the default file name to save the report as
+     */
+    private void generateReport(String format, String defaultFileName) {
+        User currentUser = authService.getCurrentUser();
+        setBusy(true);
+        CompletableFuture<Report> generation = asyncServices.submit(progress -> {
+            progress.update(-1, 0, "Generating " + format + " report...");
+            return reportService.generateReport(currentUser, ReportType.PORTFOLIO, format);
+        }, progressIndicator, statusLabel);
+        pendingWork = generation;
+        generation.whenComplete((report, error) -> {
+            if (generation.isCancelled()) {
+                setBusy(false);
+            }
+            else if (error != null || report == null) {
+                setBusy(false);
+                showErrorAlert("Report Failed", "Could not generate the " + format + " report: "
+                        + (error != null ? error.getMessage() : "no report was produced"));
+            }
+            else {
+                saveReportToFile(report, defaultFileName);
+            }
+        });
     }
 
     /**
@@ -64,15 +111,50 @@ public class ReportsController {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setInitialFileName(defaultFileName);
         File file = fileChooser.showSaveDialog(sceneManager.getStage());
-        if (file != null) {
+        if (file == null) {
+            setBusy(false);
+            return;
+        }
+        CompletableFuture<Void> saving = asyncServices.submit(progress -> {
+            progress.update(-1, 0, "Saving " + file.getName() + "...");
             try (FileOutputStream fos = new FileOutputStream(file)) {
                 byte[] reportData = report.getData();
                 fos.write(reportData);
             }
-            catch (IOException e) {
-                e.printStackTrace();
+            return null;
+        }, progressIndicator, statusLabel);
+        pendingWork = saving;
+        saving.whenComplete((ignored, error) -> {
+            setBusy(false);
+            if (error != null && !saving.isCancelled()) {
+                showErrorAlert("Save Failed", "Could not save " + file.getName() + ": " + error.getMessage());
             }
-        }
+        });
+    }
+
+    /**
+     * Displays an error alert dialog.
+     * @param title : the title of the alert
+     * @param content : the message of the alert
+     */
+    private void showErrorAlert(String title, String content) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(content);
+        alert.showAndWait();
+    }
+
+    /**
+     * Disables the generate buttons and shows the cancel button while a report is generated or saved
+     * @param busy : true while the work runs
+     */
+    private void setBusy(boolean busy) {
+        generatePdfButton.setDisable(busy);
+        generateExcelButton.setDisable(busy);
+        cancelButton.setVisible(busy);
+        cancelButton.setManaged(busy);
+        if (!busy) pendingWork = null;
     }
 
     /**
@@ -80,6 +162,7 @@ public class ReportsController {
      * @throws IOException : if an I/O error occurs
      */
     public void showDashboardView() {
+        handleCancel();
         try {
             sceneManager.showDashboardView();
         }
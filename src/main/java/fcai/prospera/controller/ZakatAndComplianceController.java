@@ -1,5 +1,6 @@
 package fcai.prospera.controller;
 
+import fcai.prospera.AsyncServices;
 import fcai.prospera.CurrencyComboBox;
 import fcai.prospera.CurrencyConversion;
 import fcai.prospera.CurrencyItem;
@@ -25,9 +26,11 @@ import javafx.scene.text.Text;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -41,14 +44,20 @@ public class ZakatAndComplianceController {
 
         private final Asset asset;
         private final BooleanProperty selected = new SimpleBooleanProperty(false);
+        private final HawlStatus hawl;
 
         public SelectableAsset(Asset asset) {
-            this.asset = asset;
+            this(asset, false, null);
         }
 
         public SelectableAsset(Asset asset, Boolean selected) {
+            this(asset, selected, null);
+        }
+
+        public SelectableAsset(Asset asset, Boolean selected, HawlStatus hawl) {
             this.asset = asset;
             this.selected.set(selected);
+            this.hawl = hawl;
         }
 
         public Asset getAsset() {
@@ -78,14 +87,28 @@ public class ZakatAndComplianceController {
         public BigDecimal getCurrentValue() {
             return asset.getCurrentValue();
         }
+
+        public String getHawlDate() {
+            return hawl == null || hawl.hawlDate() == null ? "" : HAWL_DATE_FORMAT.format(hawl.hawlDate());
+        }
+
+        public boolean isHawlPassed() {
+            return hawl != null && hawl.passed();
+        }
     }
 
+    private static final DateTimeFormatter HAWL_DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+
     private ZakatAndComplianceService zakatService;
     private AuthService authService;
     private AssetService assetService;
 
     static private List<Asset> selectedAssets;
+    static private Set<UUID> selectedAssetIds = Set.of();
     private SceneManager sceneManager;
+    private AsyncServices asyncServices;
+    private CompletableFuture<List<SelectableAsset>> pendingLoad;
+    private boolean mainViewListenersAdded = false;
 
     @FXML private TableView<SelectableAsset> assets_table;
     @FXML private TableColumn<SelectableAsset, Boolean> select_col;
@@ -101,14 +124,18 @@ public class ZakatAndComplianceController {
     @FXML private Label silver_currency_label;
     @FXML private Label error_label;
     @FXML private Label selected_assets_label;
+    @FXML private ProgressIndicator loading_indicator;
 
     @FXML private ListView<String> results_list;
 
     private final ObservableList<SelectableAsset> assets = FXCollections.observableArrayList();
 
-    private static double goldExchangeRate = 4780;
-    private static double silverExchangeRate = 52.22;
+    private static BigDecimal goldExchangeRate = new BigDecimal("4780");
+    private static BigDecimal silverExchangeRate = new BigDecimal("52.22");
+    private static final int RATE_DECIMALS = 4;
+    private static final int AMOUNT_DECIMALS = 2;
     private static CurrencyItem exchangeCurrency = new CurrencyItem("EGP", "Egyptian Pound", "£");
+    private static boolean metalPricesEdited = false;
 
     /**
      * Initializes the zakat view
@@ -123,6 +150,7 @@ public class ZakatAndComplianceController {
         this.authService = authService;
         this.zakatService = zakatService;
         this.assetService = assetService;
+        this.asyncServices = sceneManager.getAsyncServices();
 
         switch (view) {
             case "MAIN":
@@ -140,11 +168,15 @@ public class ZakatAndComplianceController {
     }
 
     /**
-     * Initializes the main zakat view
+     * Initializes the main zakat view; the field listeners are added only the first time, as the view is reused
      */
     private void initMainView() {
-        gold_rate_field.setText(String.valueOf(goldExchangeRate));
-        silver_rate_field.setText(String.valueOf(silverExchangeRate));
+        if (!metalPricesEdited) {
+            applyPublishedMetalPrices();
+        }
+
+        gold_rate_field.setText(goldExchangeRate.toPlainString());
+        silver_rate_field.setText(silverExchangeRate.toPlainString());
         currency_picker.setValue(
                 currency_picker.getItems().stream()
                         .filter(item -> item.getCode().equals(exchangeCurrency.getCode()))
@@ -153,32 +185,41 @@ public class ZakatAndComplianceController {
         );
         gold_currency_label.setText(exchangeCurrency.getCode() + "/gram");
         silver_currency_label.setText(exchangeCurrency.getCode() + "/gram");
+        error_label.setText("");
+        selected_assets_label.setText((selectedAssets == null ? 0 : selectedAssets.size()) + " assets selected");
+
+        if (mainViewListenersAdded) {
+            return;
+        }
+        mainViewListenersAdded = true;
 
         gold_rate_field.focusedProperty().addListener((obs, oldVal, newVal) -> {
             if (!newVal) { // focus lost
                 try {
-                    double value = Double.parseDouble(gold_rate_field.getText());
-                    if (value >= 0) {
+                    BigDecimal value = new BigDecimal(gold_rate_field.getText().trim());
+                    if (value.signum() >= 0) {
+                        metalPricesEdited |= value.compareTo(goldExchangeRate) != 0;
                         goldExchangeRate = value;
                     } else {
-                        gold_rate_field.setText(String.valueOf(goldExchangeRate)); // revert
+                        gold_rate_field.setText(goldExchangeRate.toPlainString()); // revert
                     }
                 } catch (Exception e) {
-                    gold_rate_field.setText(String.valueOf(goldExchangeRate)); // revert
+                    gold_rate_field.setText(goldExchangeRate.toPlainString()); // revert
                 }
             }
         });
         silver_rate_field.focusedProperty().addListener((obs, oldVal, newVal) -> {
             if (!newVal) { // focus lost
                 try {
-                    double value = Double.parseDouble(silver_rate_field.getText());
-                    if (value >= 0) {
+                    BigDecimal value = new BigDecimal(silver_rate_field.getText().trim());
+                    if (value.signum() >= 0) {
+                        metalPricesEdited |= value.compareTo(silverExchangeRate) != 0;
                         silverExchangeRate = value;
                     } else {
-                        silver_rate_field.setText(String.valueOf(silverExchangeRate)); // revert
+                        silver_rate_field.setText(silverExchangeRate.toPlainString()); // revert
                     }
                 } catch (Exception e) {
-                    silver_rate_field.setText(String.valueOf(silverExchangeRate)); // revert
+                    silver_rate_field.setText(silverExchangeRate.toPlainString()); // revert
                 }
             }
         });
@@ -187,17 +228,46 @@ public class ZakatAndComplianceController {
             exchangeCurrency = newVal;
             gold_currency_label.setText(exchangeCurrency.getCode() + "/gram");
             silver_currency_label.setText(exchangeCurrency.getCode() + "/gram");
-            goldExchangeRate = CurrencyConversion.convert(oldVal.getCode(), newVal.getCode(), BigDecimal.valueOf(goldExchangeRate)).doubleValue();
-            silverExchangeRate = CurrencyConversion.convert(oldVal.getCode(), newVal.getCode(), BigDecimal.valueOf(silverExchangeRate)).doubleValue();
-            gold_rate_field.setText(String.valueOf(goldExchangeRate));
-            silver_rate_field.setText(String.valueOf(silverExchangeRate));
+            goldExchangeRate = roundRate(CurrencyConversion.convert(oldVal.getCode(), newVal.getCode(), goldExchangeRate));
+            silverExchangeRate = roundRate(CurrencyConversion.convert(oldVal.getCode(), newVal.getCode(), silverExchangeRate));
+            gold_rate_field.setText(goldExchangeRate.toPlainString());
+            silver_rate_field.setText(silverExchangeRate.toPlainString());
         });
+    }
 
-        selected_assets_label.setText((selectedAssets == null ? 0 : selectedAssets.size()) + " assets selected");
+    /**
+     * Replaces the gold and silver prices with the published prices per gram in the selected currency, if any were published
+     */
+    private static void applyPublishedMetalPrices() {
+        BigDecimal goldPrice = CurrencyConversion.getMetalPrice(CurrencyConversion.GOLD_CODE, exchangeCurrency.getCode());
+        BigDecimal silverPrice = CurrencyConversion.getMetalPrice(CurrencyConversion.SILVER_CODE, exchangeCurrency.getCode());
+        if (goldPrice != null) {
+            goldExchangeRate = roundRate(goldPrice);
+        }
+        if (silverPrice != null) {
+            silverExchangeRate = roundRate(silverPrice);
+        }
     }
 
     /**
-     * Initializes the zakat asset selection view
+     * Rounds a converted metal price to a few decimal places, so it can be shown and edited
+     * @param rate : the price per gram
+     * @return the rounded price per gram
+     */
+    private static BigDecimal roundRate(BigDecimal rate) {
+        return rate.setScale(RATE_DECIMALS, RoundingMode.HALF_EVEN).stripTrailingZeros();
+    }
+
+    /**
+     * @param amount : an amount in the selected currency
+     * @return the amount rounded to cents, with its currency code
+     */
+    private static String formatAmount(BigDecimal amount) {
+        return amount.setScale(AMOUNT_DECIMALS, RoundingMode.HALF_EVEN).toPlainString() + " " + exchangeCurrency.getCode();
+    }
+
+    /**
+     * Initializes the zakat asset selection view, loading the user's assets and their hawl statuses in the background
      */
     private void initSelectionView() {
         select_col.setCellValueFactory(cellData -> cellData.getValue().selectedProperty());
@@ -207,24 +277,22 @@ public class ZakatAndComplianceController {
         value_col.setCellValueFactory(new PropertyValueFactory<>("currentValue"));
         value_col.setText("Value (" + exchangeCurrency.getCode() + ")");
 
-        List<Asset> userAssets = assetService.getAssets(authService.getCurrentUser().getId());
+        UUID userId = authService.getCurrentUser().getId();
         assets.clear();
+        Set<UUID> wasSelected = selectedAssetIds;
+        pendingLoad = asyncServices.submit(progress -> {
+            List<Asset> userAssets = assetService.getAssets(userId);
+            Map<UUID, HawlStatus> hawlStatuses = zakatService.getHawlStatuses(userId);
+            List<SelectableAsset> rows = new ArrayList<>(userAssets.size());
+            for (Asset asset : userAssets) {
+                rows.add(new SelectableAsset(asset, wasSelected.contains(asset.getId()), hawlStatuses.get(asset.getId())));
+            }
+            return rows;
+        }, loading_indicator, null);
+        pendingLoad.thenAccept(assets::setAll);
 
-        for (Asset asset : userAssets) {
-            boolean wasSelected = selectedAssets != null && selectedAssets.contains(asset);
-            assets.add(new SelectableAsset(asset, wasSelected));
-        }
-
-        hawl_date_col.setCellValueFactory(cellData -> {
-            Date hawlDate = zakatService.getHawlDate(cellData.getValue().getAsset().getId());
-            String formattedDate = hawlDate == null ? "" : new SimpleDateFormat("yyyy-MM-dd").format(hawlDate);
-            return new SimpleStringProperty(formattedDate);
-        });
-
-        hawl_date_passed_col.setCellValueFactory(cellData -> {
-            Boolean hasPassed = zakatService.hasHawlPassed(cellData.getValue().getAsset().getId());
-            return new SimpleBooleanProperty(hasPassed);
-        });
+        hawl_date_col.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(cellData.getValue().getHawlDate()));
+        hawl_date_passed_col.setCellValueFactory(cellData -> new ReadOnlyBooleanWrapper(cellData.getValue().isHawlPassed()));
 
         assets_table.setItems(assets);
     }
@@ -235,22 +303,26 @@ public class ZakatAndComplianceController {
     private void initResultsView() {
         results_list.getItems().clear();
 
-        double goldNisab = ZakatAndComplianceService.getGoldNisab(goldExchangeRate);
-        double silverNisab = ZakatAndComplianceService.getSilverNisab(silverExchangeRate);
-
-        System.out.println(goldNisab + " " + silverNisab);
-
-        BigDecimal zakatAmountGold = ZakatAndComplianceService.calculateZakat(goldNisab, selectedAssets);
-        BigDecimal zakatAmountSilver = ZakatAndComplianceService.calculateZakat(silverNisab, selectedAssets);
+        ZakatResult result = ZakatAndComplianceService.calculateZakat(selectedAssets, exchangeCurrency.getCode(),
+                goldExchangeRate, silverExchangeRate);
 
         results_list.getItems().addAll(
-                "Gold Nisab: " + goldNisab + " " + exchangeCurrency.getCode(),
-                "Silver Nisab: " + silverNisab + " " + exchangeCurrency.getCode(),
+                "Gold Nisab: " + formatAmount(result.goldNisab()),
+                "Silver Nisab: " + formatAmount(result.silverNisab()),
                 "--------------------------------------------------------------------------",
-                "Total Assets Value: " + selectedAssets.stream().map(Asset::getCurrentValue).reduce(BigDecimal.ZERO, BigDecimal::add) + " " + exchangeCurrency.getCode(),
+                "Total Assets Value: " + formatAmount(result.total())
+        );
+        if (result.totalsByCurrency().size() > 1 || !result.totalsByCurrency().containsKey(Currency.getInstance(exchangeCurrency.getCode()))) {
+            result.totalsByCurrency().forEach((currency, total) ->
+                    results_list.getItems().add("    held in " + currency.getCurrencyCode() + ": " + total.toPlainString()));
+        }
+        if (!result.unconvertedCurrencies().isEmpty()) {
+            results_list.getItems().add("Not included, no exchange rate for: " + String.join(", ", result.unconvertedCurrencies()));
+        }
+        results_list.getItems().addAll(
                 "--------------------------------------------------------------------------",
-                "Zakat amount (based on gold - wajib): " + zakatAmountGold + " " + exchangeCurrency.getCode(),
-                "Zakat amount (based on silver - mustahab): " + zakatAmountSilver + " " + exchangeCurrency.getCode()
+                "Zakat amount (based on gold - wajib): " + formatAmount(result.zakatByGold()),
+                "Zakat amount (based on silver - mustahab): " + formatAmount(result.zakatBySilver())
         );
     }
 
@@ -259,6 +331,7 @@ public class ZakatAndComplianceController {
      */
     public void onSaveSelection() {
         selectedAssets = assets_table.getItems().stream().filter(SelectableAsset::isSelected).map(SelectableAsset::getAsset).collect(Collectors.toList());
+        selectedAssetIds = selectedAssets.stream().map(Asset::getId).collect(Collectors.toUnmodifiableSet());
         showZakatView();
     }
 
@@ -293,6 +366,7 @@ public class ZakatAndComplianceController {
      * @throws IOException : if an I/O error occurs
      */
     public void showZakatView() {
+        cancelPendingLoad();
         try {
             sceneManager.showZakatView();
         } catch (IOException e) {
@@ -305,6 +379,7 @@ public class ZakatAndComplianceController {
      * @throws IOException : if an I/O error occurs
      */
     public void showDashboardView() {
+        cancelPendingLoad();
         try {
             sceneManager.showDashboardView();
         } catch (IOException e) {
@@ -329,6 +404,16 @@ public class ZakatAndComplianceController {
         }
     }
 
+    /**
+     * Cancels loading the assets of the selection view, if it is still running
+     */
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+            pendingLoad = null;
+        }
+    }
+
     /**
      * A helper method that checks whether the user can calculate zakat based on whether or not they have selected any assets
      * @return true if the user can calculate zakat, false otherwise
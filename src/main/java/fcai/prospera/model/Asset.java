@@ -18,45 +18,69 @@ public class Asset implements Serializable { // Ensure Asset implements Serializ
 
     private final UUID id; // This is final and Serializable (UUID is Serializable)
 
-    // Mark JavaFX properties as transient
-    private transient ObjectProperty<UUID> userId;
-    private transient StringProperty name;
-    private transient ObjectProperty<AssetType> type;
-    private transient ObjectProperty<BigDecimal> purchasePrice;
-    private transient ObjectProperty<Date> purchaseDate;
-    private transient ObjectProperty<BigDecimal> currentValue;
-    private transient ObjectProperty<Currency> currency;
-    private transient BooleanProperty zakatable;
+    // Plain field values, written manually in writeObject
+    private transient UUID userId;
+    private transient String name;
+    private transient AssetType type;
+    private transient BigDecimal purchasePrice;
+    private transient Date purchaseDate;
+    private transient BigDecimal currentValue;
+    private transient Currency currency;
+    private transient boolean zakatable;
+
+    // JavaFX properties, only created when a view binds to them
+    private transient ObjectProperty<UUID> userIdProperty;
+    private transient StringProperty nameProperty;
+    private transient ObjectProperty<AssetType> typeProperty;
+    private transient ObjectProperty<BigDecimal> purchasePriceProperty;
+    private transient ObjectProperty<Date> purchaseDateProperty;
+    private transient ObjectProperty<BigDecimal> currentValueProperty;
+    private transient ObjectProperty<Currency> currencyProperty;
+    private transient BooleanProperty zakatableProperty;
 
     public Asset() {
         this.id = UUID.randomUUID();
-        initializeProperties(); // Helper method to initialize transient properties
     }
 
     public Asset(UUID userId, String name, AssetType type, BigDecimal purchasePrice,
                  Date purchaseDate, BigDecimal currentValue, Currency currency) {
-        this(); // Call to the default constructor to initialize id and properties
-        setUserId(userId);
-        setName(name);
-        setType(type);
-        setPurchasePrice(purchasePrice);
-        setPurchaseDate(purchaseDate);
-        setCurrentValue(currentValue);
-        setCurrency(currency);
+        this(UUID.randomUUID(), userId, name, type, purchasePrice, purchaseDate, currentValue, currency);
     }
 
     /**
-     * Method to initialize transient properties for JavaFX
+     * Creates an asset with a known id, used when restoring assets from storage
      */
-    private void initializeProperties() {
-        this.userId = new SimpleObjectProperty<>();
-        this.name = new SimpleStringProperty();
-        this.type = new SimpleObjectProperty<>();
-        this.purchasePrice = new SimpleObjectProperty<>();
-        this.purchaseDate = new SimpleObjectProperty<>();
-        this.currentValue = new SimpleObjectProperty<>();
-        this.currency = new SimpleObjectProperty<>();
-        this.zakatable = new SimpleBooleanProperty();
+    public Asset(UUID id, UUID userId, String name, AssetType type, BigDecimal purchasePrice,
+                 Date purchaseDate, BigDecimal currentValue, Currency currency) {
+        this.id = id;
+        this.userId = userId;
+        this.name = name;
+        this.type = type;
+        this.purchasePrice = purchasePrice;
+        this.purchaseDate = purchaseDate;
+        this.currentValue = currentValue;
+        this.currency = currency;
+    }
+
+    /**
+     * Creates an asset from its immutable record
+     * @param record : the asset record
+     * @return a new asset holding the record's values
+     */
+    public static Asset fromRecord(AssetRecord record) {
+        return new Asset(record.id(), record.userId(), record.name(), record.type(), record.purchasePrice(),
+                record.purchaseDate() != null ? Date.from(record.purchaseDate()) : null,
+                record.currentValue(), record.currency());
+    }
+
+    /**
+     * Takes an immutable snapshot of this asset
+     * @return the asset record
+     */
+    public AssetRecord toRecord() {
+        Date date = getPurchaseDate();
+        return new AssetRecord(id, getUserId(), getName(), getType(), getPurchasePrice(),
+                date != null ? date.toInstant() : null, getCurrentValue(), getCurrency());
     }
 
     /**
@@ -88,10 +112,7 @@ public class Asset implements Serializable { // Ensure Asset implements Serializ
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject(); // Reads non-static and non-transient fields (like 'id')
 
-        // Re-initialize transient properties
-        initializeProperties();
-
-        // Manually read the values and set them into the properties
+        // Manually read the values into the plain fields
         setUserId((UUID) in.readObject());
         setName((String) in.readObject());
         setType((AssetType) in.readObject());
@@ -102,32 +123,58 @@ public class Asset implements Serializable { // Ensure Asset implements Serializ
     }
 
 
-    // Property getters (no change)
-    public StringProperty nameProperty() { return name; }
-    public ObjectProperty<AssetType> typeProperty() { return type; }
-    public ObjectProperty<BigDecimal> purchasePriceProperty() { return purchasePrice; }
-    public ObjectProperty<Date> purchaseDateProperty() { return purchaseDate; }
-    public ObjectProperty<BigDecimal> currentValueProperty() { return currentValue; }
-    public ObjectProperty<Currency> currencyProperty() { return currency; }
-    public BooleanProperty zakatableProperty() { return zakatable; }
-    public ObjectProperty<UUID> userIdProperty() { return userId; }
+    // Property getters, creating each property on first use
+    public StringProperty nameProperty() {
+        if (nameProperty == null) nameProperty = new SimpleStringProperty(this, "name", name);
+        return nameProperty;
+    }
+    public ObjectProperty<AssetType> typeProperty() {
+        if (typeProperty == null) typeProperty = new SimpleObjectProperty<>(this, "type", type);
+        return typeProperty;
+    }
+    public ObjectProperty<BigDecimal> purchasePriceProperty() {
+        if (purchasePriceProperty == null) purchasePriceProperty = new SimpleObjectProperty<>(this, "purchasePrice", purchasePrice);
+        return purchasePriceProperty;
+    }
+    public ObjectProperty<Date> purchaseDateProperty() {
+        if (purchaseDateProperty == null) purchaseDateProperty = new SimpleObjectProperty<>(this, "purchaseDate", purchaseDate);
+        return purchaseDateProperty;
+    }
+    public ObjectProperty<BigDecimal> currentValueProperty() {
+        if (currentValueProperty == null) currentValueProperty = new SimpleObjectProperty<>(this, "currentValue", currentValue);
+        return currentValueProperty;
+    }
+    public ObjectProperty<Currency> currencyProperty() {
+        if (currencyProperty == null) currencyProperty = new SimpleObjectProperty<>(this, "currency", currency);
+        return currencyProperty;
+    }
+    public BooleanProperty zakatableProperty() {
+        if (zakatableProperty == null) zakatableProperty = new SimpleBooleanProperty(this, "zakatable", zakatable);
+        return zakatableProperty;
+    }
+    public ObjectProperty<UUID> userIdProperty() {
+        if (userIdProperty == null) userIdProperty = new SimpleObjectProperty<>(this, "userId", userId);
+        return userIdProperty;
+    }
 
-    // Regular getters and setters (no change)
+    // Regular getters and setters, going through the property once it exists
     public UUID getId() { return id; }
-    public UUID getUserId() { return userId.get(); }
-    public void setUserId(UUID userId) { this.userId.set(userId); }
-    public String getName() { return name.get(); }
-    public void setName(String name) { this.name.set(name); }
-    public AssetType getType() { return type.get(); }
-    public void setType(AssetType type) { this.type.set(type); }
-    public BigDecimal getPurchasePrice() { return purchasePrice.get(); }
-    public void setPurchasePrice(BigDecimal purchasePrice) { this.purchasePrice.set(purchasePrice); }
-    public Date getPurchaseDate() { return purchaseDate.get(); }
-    public void setPurchaseDate(Date purchaseDate) { this.purchaseDate.set(purchaseDate); }
-    public BigDecimal getCurrentValue() { return currentValue.get(); }
-    public void setCurrentValue(BigDecimal currentValue) { this.currentValue.set(currentValue); }
-    public Currency getCurrency() { return currency.get(); }
-    public void setCurrency(Currency currency) { this.currency.set(currency); }
+    public UUID getUserId() { return userIdProperty != null ? userIdProperty.get() : userId; }
+    public void setUserId(UUID userId) { if (userIdProperty != null) userIdProperty.set(userId); else this.userId = userId; }
+    public String getName() { return nameProperty != null ? nameProperty.get() : name; }
+    public void setName(String name) { if (nameProperty != null) nameProperty.set(name); else this.name = name; }
+    public AssetType getType() { return typeProperty != null ? typeProperty.get() : type; }
+    public void setType(AssetType type) { if (typeProperty != null) typeProperty.set(type); else this.type = type; }
+    public BigDecimal getPurchasePrice() { return purchasePriceProperty != null ? purchasePriceProperty.get() : purchasePrice; }
+    public void setPurchasePrice(BigDecimal purchasePrice) { if (purchasePriceProperty != null) purchasePriceProperty.set(purchasePrice); else this.purchasePrice = purchasePrice; }
+    public Date getPurchaseDate() { return purchaseDateProperty != null ? purchaseDateProperty.get() : purchaseDate; }
+    public void setPurchaseDate(Date purchaseDate) { if (purchaseDateProperty != null) purchaseDateProperty.set(purchaseDate); else this.purchaseDate = purchaseDate; }
+    public BigDecimal getCurrentValue() { return currentValueProperty != null ? currentValueProperty.get() : currentValue; }
+    public void setCurrentValue(BigDecimal currentValue) { if (currentValueProperty != null) currentValueProperty.set(currentValue); else this.currentValue = currentValue; }
+    public Currency getCurrency() { return currencyProperty != null ? currencyProperty.get() : currency; }
+    public void setCurrency(Currency currency) { if (currencyProperty != null) currencyProperty.set(currency); else this.currency = currency; }
+    public boolean isZakatable() { return zakatableProperty != null ? zakatableProperty.get() : zakatable; }
+    public void setZakatable(boolean zakatable) { if (zakatableProperty != null) zakatableProperty.set(zakatable); else this.zakatable = zakatable; }
 
     public BigDecimal calculateROI() {
         if (getPurchasePrice() == null || getPurchasePrice().compareTo(BigDecimal.ZERO) == 0 || getCurrentValue() == null) {
@@ -0,0 +1,30 @@
+package fcai.prospera.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * An immutable snapshot of an asset's data, free of JavaFX properties, for use in calculations and services
+ *
+ * @param id : the asset id
+ * @param userId : the id of the owning user
+ * @param name : the asset name
+ * @param type : the asset type
+ * @param purchasePrice : the purchase price
+ * @param purchaseDate : the purchase date
+ * @param currentValue : the current value
+ * @param currency : the currency of the prices
+ */
+public record AssetRecord(UUID id, UUID userId, String name, AssetType type, BigDecimal purchasePrice,
+                          Instant purchaseDate, BigDecimal currentValue, Currency currency) {
+
+    /**
+     * @param newValue : the new current value
+     * @return a copy of this record with the given current value
+     */
+    public AssetRecord withCurrentValue(BigDecimal newValue) {
+        return new AssetRecord(id, userId, name, type, purchasePrice, purchaseDate, newValue, currency);
+    }
+}
@@ -0,0 +1,14 @@
+package fcai.prospera.model;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * The hawl (one lunar year of ownership) of an asset as of a given day
+ *
+ * @param assetId : the asset id
+ * @param hawlDate : the day the hawl completes, or null if the asset has no purchase date
+ * @param passed : true if the hawl has completed by the day the status was computed for
+ */
+public record HawlStatus(UUID assetId, LocalDate hawlDate, boolean passed) {
+}
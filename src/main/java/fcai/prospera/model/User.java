@@ -23,6 +23,16 @@ public class User implements Serializable {
         this.passwordHash = passwordHash;
     }
 
+    /**
+     * Creates a user with a known id, used when restoring users from storage
+     */
+    public User(UUID id, String username, String email, String passwordHash) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+        this.passwordHash = passwordHash;
+    }
+
     public UUID getId() {
         return id;
     }
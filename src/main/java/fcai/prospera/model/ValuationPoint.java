@@ -0,0 +1,13 @@
+package fcai.prospera.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * The value of an asset at a point in time
+ *
+ * @param timestamp : when the value was recorded, to the second
+ * @param value : the asset's current value at that time, in the asset's currency
+ */
+public record ValuationPoint(Instant timestamp, BigDecimal value) {
+}
@@ -0,0 +1,23 @@
+package fcai.prospera.model;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The zakat due on a set of assets, in one currency, against both the gold and the silver nisab
+ *
+ * @param currencyCode : the currency every amount is expressed in
+ * @param totalsByCurrency : the value of the assets held in each currency, before conversion
+ * @param total : the value of the assets, converted into the currency
+ * @param goldNisab : the nisab by the price of gold
+ * @param silverNisab : the nisab by the price of silver
+ * @param zakatByGold : the zakat due if the total reaches the gold nisab, zero otherwise
+ * @param zakatBySilver : the zakat due if the total reaches the silver nisab, zero otherwise
+ * @param unconvertedCurrencies : the codes of the currencies without an exchange rate, whose assets are left out of the total
+ */
+public record ZakatResult(String currencyCode, Map<Currency, BigDecimal> totalsByCurrency, BigDecimal total,
+                          BigDecimal goldNisab, BigDecimal silverNisab, BigDecimal zakatByGold, BigDecimal zakatBySilver,
+                          List<String> unconvertedCurrencies) {
+}
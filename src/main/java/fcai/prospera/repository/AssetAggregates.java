@@ -0,0 +1,149 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Running per-user totals of asset values, by currency and by asset type.
+ * <p>
+ * Each asset's last counted contribution is remembered so an update or removal only
+ * subtracts the old contribution and adds the new one, without touching the user's other assets.
+ */
+class AssetAggregates {
+    /**
+     * What an asset last contributed to its user's totals
+     */
+    private record Contribution(UUID userId, AssetType type, Currency currency, BigDecimal value) { }
+
+    /**
+     * A running sum and the number of assets contributing to it
+     */
+    private static final class Sum {
+        private BigDecimal value = BigDecimal.ZERO;
+        private int count;
+    }
+
+    /**
+     * The totals of a single user
+     */
+    private static final class UserTotals {
+        private final Sum total = new Sum();
+        private final Map<Currency, Sum> byCurrency = new HashMap<>();
+        private final Map<AssetType, Sum> byType = new EnumMap<>(AssetType.class);
+
+        void add(Contribution contribution, int sign) {
+            BigDecimal value = sign < 0 ? contribution.value().negate() : contribution.value();
+            add(total, value, sign);
+            if (contribution.currency() != null) {
+                add(byCurrency, contribution.currency(), value, sign);
+            }
+            if (contribution.type() != null) {
+                add(byType, contribution.type(), value, sign);
+            }
+        }
+
+        private static <K> void add(Map<K, Sum> sums, K key, BigDecimal value, int sign) {
+            Sum sum = sums.computeIfAbsent(key, k -> new Sum());
+            add(sum, value, sign);
+            if (sum.count == 0) {
+                sums.remove(key);
+            }
+        }
+
+        private static void add(Sum sum, BigDecimal value, int sign) {
+            sum.value = sum.value.add(value);
+            sum.count += sign;
+        }
+    }
+
+    private final Map<UUID, Contribution> contributions = new HashMap<>();
+    private final Map<UUID, UserTotals> totalsByUser = new HashMap<>();
+
+    /**
+     * Clears all totals and recounts the given assets
+     * @param assets : the assets to count
+     */
+    void rebuild(Collection<Asset> assets) {
+        contributions.clear();
+        totalsByUser.clear();
+        for (Asset asset : assets) {
+            apply(asset);
+        }
+    }
+
+    /**
+     * Counts an added or updated asset, replacing its previous contribution
+     * @param asset : the asset
+     */
+    void apply(Asset asset) {
+        remove(asset.getId());
+        if (asset.getUserId() == null || asset.getCurrentValue() == null) {
+            return;
+        }
+
+        Contribution contribution = new Contribution(asset.getUserId(), asset.getType(), asset.getCurrency(), asset.getCurrentValue());
+        contributions.put(asset.getId(), contribution);
+        totalsByUser.computeIfAbsent(contribution.userId(), userId -> new UserTotals()).add(contribution, 1);
+    }
+
+    /**
+     * Removes an asset's contribution
+     * @param assetId : the asset id
+     */
+    void remove(UUID assetId) {
+        Contribution contribution = contributions.remove(assetId);
+        if (contribution == null) {
+            return;
+        }
+
+        UserTotals totals = totalsByUser.get(contribution.userId());
+        totals.add(contribution, -1);
+        if (totals.total.count == 0) {
+            totalsByUser.remove(contribution.userId());
+        }
+    }
+
+    /**
+     * @param userId : user id
+     * @return the raw sum of the user's asset values, across currencies
+     */
+    BigDecimal getNetWorth(UUID userId) {
+        UserTotals totals = totalsByUser.get(userId);
+        return totals != null ? totals.total.value : BigDecimal.ZERO;
+    }
+
+    /**
+     * @param userId : user id
+     * @return the sum of the user's asset values per currency
+     */
+    Map<Currency, BigDecimal> getTotalsByCurrency(UUID userId) {
+        Map<Currency, BigDecimal> result = new HashMap<>();
+        UserTotals totals = totalsByUser.get(userId);
+        if (totals != null) {
+            totals.byCurrency.forEach((currency, sum) -> result.put(currency, sum.value));
+        }
+        return result;
+    }
+
+    /**
+     * @param userId : user id
+     * @return the percentage of the user's total held in each asset type
+     */
+    Map<AssetType, BigDecimal> getDistribution(UUID userId) {
+        Map<AssetType, BigDecimal> distribution = new HashMap<>();
+        UserTotals totals = totalsByUser.get(userId);
+        if (totals == null || totals.total.value.signum() == 0) {
+            return distribution;
+        }
+
+        for (Map.Entry<AssetType, Sum> entry : totals.byType.entrySet()) {
+            distribution.put(entry.getKey(), entry.getValue().value.divide(totals.total.value, 4, RoundingMode.HALF_UP)
+                    .multiply(new BigDecimal("100")));
+        }
+        return distribution;
+    }
+}
@@ -0,0 +1,624 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Implements the AssetRepository interface with memory-mapped, fixed-width columns, one file per field.
+ * <p>
+ * Assets are not kept on the heap: {@link Asset} objects are created on demand when they are read,
+ * and net worth and distribution are computed straight from the value columns.
+ * Monetary values are stored as longs scaled by 10^{@value #SCALE}, so values with more decimal places are
+ * rejected rather than rounded. Dates are stored as epoch millis, asset types by ordinal and currencies by their
+ * position in a dictionary kept in the header file. Names are variable-width, so the name column holds an offset
+ * and length into a separate heap file; a name is overwritten in place when the new one fits, and the heap is
+ * compacted once most of it is unused.
+ * <p>
+ * Changes to an {@link Asset} returned by this repository are only stored through
+ * {@link #updateAsset(UUID, Asset)} or {@link #updateCurrentValue(UUID, BigDecimal)}.
+ */
+public class AssetColumnarRepository implements AssetRepository {
+    private static final String COLUMNS_DIRECTORY_PATH = "data/columns";
+
+    private static final int MAGIC = 0x50524343; // "PRCC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int HEADER_ROW_COUNT = 8;
+    private static final int HEADER_CURRENCY_COUNT = 12;
+    private static final int HEADER_CURRENCIES = 16;
+    private static final int MAX_CURRENCIES = (HEADER_SIZE - HEADER_CURRENCIES) / 3;
+
+    private static final int SCALE = 4;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long MIN_NAME_HEAP_GARBAGE = 64 * 1024;
+
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+
+    /**
+     * A fixed-width column backed by its own memory-mapped file
+     */
+    private static final class Column {
+        private final FileChannel channel;
+        private final int width;
+        private MappedByteBuffer buffer;
+
+        Column(File file, int width, int capacity) throws IOException {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.width = width;
+            map(capacity);
+        }
+
+        void map(int capacity) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * width);
+        }
+
+        int offset(int row) {
+            return row * width;
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+
+    private final File directory;
+    private final FileChannel headerChannel;
+    private final MappedByteBuffer header;
+    private final Column ids;
+    private final Column userIds;
+    private final Column names;
+    private final Column types;
+    private final Column purchasePrices;
+    private final Column purchaseDates;
+    private final Column currentValues;
+    private final Column currencies;
+    private final List<Column> columns;
+    private final FileChannel nameHeap;
+
+    private final List<Currency> currencyDictionary = new ArrayList<>();
+    private final Map<Currency, Short> currencyOrdinals = new HashMap<>();
+    private final Map<UUID, Integer> rowsById = new HashMap<>();
+    private int rowCount;
+    private int capacity;
+    private long nameHeapGarbage;
+
+    public AssetColumnarRepository() {
+        this(COLUMNS_DIRECTORY_PATH);
+    }
+
+    /**
+     * @param directoryPath : the directory holding the column files
+     */
+    public AssetColumnarRepository(String directoryPath) {
+        directory = new File(directoryPath);
+        directory.mkdirs();
+        try {
+            headerChannel = FileChannel.open(new File(directory, "header.col").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = headerChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            readHeader();
+
+            capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(rowCount, 1)) << 1);
+            ids = new Column(new File(directory, "ids.col"), 16, capacity);
+            userIds = new Column(new File(directory, "user_ids.col"), 16, capacity);
+            names = new Column(new File(directory, "names.col"), 12, capacity);
+            types = new Column(new File(directory, "types.col"), 1, capacity);
+            purchasePrices = new Column(new File(directory, "purchase_prices.col"), 8, capacity);
+            purchaseDates = new Column(new File(directory, "purchase_dates.col"), 8, capacity);
+            currentValues = new Column(new File(directory, "current_values.col"), 8, capacity);
+            currencies = new Column(new File(directory, "currencies.col"), 2, capacity);
+            columns = List.of(ids, userIds, names, types, purchasePrices, purchaseDates, currentValues, currencies);
+            nameHeap = FileChannel.open(new File(directory, "names.heap").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        catch (IOException exception) {
+            throw new UncheckedIOException("Error opening asset columns in " + directoryPath, exception);
+        }
+
+        long liveNameBytes = 0;
+        for (int row = 0; row < rowCount; row++) {
+            rowsById.put(readUuid(ids, row), row);
+            liveNameBytes += nameLength(row);
+        }
+        try {
+            nameHeapGarbage = Math.max(0, nameHeap.size() - liveNameBytes);
+        }
+        catch (IOException exception) {
+            throw new UncheckedIOException("Error opening asset columns in " + directoryPath, exception);
+        }
+    }
+
+    /**
+     * Reads the row count and currency dictionary, initializing the header of a new store
+     */
+    private void readHeader() throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(HEADER_ROW_COUNT, 0);
+            header.putInt(HEADER_CURRENCY_COUNT, 0);
+            return;
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported column store version " + header.getInt(4));
+        }
+
+        rowCount = header.getInt(HEADER_ROW_COUNT);
+        int currencyCount = header.getInt(HEADER_CURRENCY_COUNT);
+        byte[] code = new byte[3];
+        for (int i = 0; i < currencyCount; i++) {
+            header.get(HEADER_CURRENCIES + i * 3, code);
+            Currency currency = Currency.getInstance(new String(code, StandardCharsets.US_ASCII));
+            currencyOrdinals.put(currency, (short) currencyDictionary.size());
+            currencyDictionary.add(currency);
+        }
+    }
+
+    /**
+     * Forces all columns to disk
+     */
+    public synchronized void flush() {
+        header.force();
+        for (Column column : columns) {
+            column.force();
+        }
+    }
+
+    /**
+     * Forces all columns and the name heap to disk and closes their files.
+     * The repository must not be used afterwards.
+     */
+    public synchronized void close() {
+        flush();
+        try {
+            nameHeap.force(true);
+        }
+        catch (IOException exception) {
+            System.err.println("Error forcing asset names in " + directory.getPath() + ": " + exception.getMessage());
+        }
+        List<FileChannel> channels = new ArrayList<>();
+        channels.add(headerChannel);
+        channels.add(nameHeap);
+        for (Column column : columns) {
+            channels.add(column.channel);
+        }
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            }
+            catch (IOException exception) {
+                System.err.println("Error closing asset columns in " + directory.getPath() + ": " + exception.getMessage());
+            }
+        }
+    }
+
+    private void ensureCapacity(int rows) throws IOException {
+        if (rows <= capacity) {
+            return;
+        }
+
+        int newCapacity = capacity;
+        while (newCapacity < rows) {
+            newCapacity <<= 1;
+        }
+        for (Column column : columns) {
+            column.map(newCapacity);
+        }
+        capacity = newCapacity;
+    }
+
+    private void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+        header.putInt(HEADER_ROW_COUNT, rowCount);
+    }
+
+    private short currencyOrdinal(Currency currency) throws IOException {
+        Short ordinal = currencyOrdinals.get(currency);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        if (currencyDictionary.size() >= MAX_CURRENCIES) {
+            throw new IOException("Too many currencies in column store");
+        }
+
+        short newOrdinal = (short) currencyDictionary.size();
+        header.put(HEADER_CURRENCIES + newOrdinal * 3, currency.getCurrencyCode().getBytes(StandardCharsets.US_ASCII));
+        currencyDictionary.add(currency);
+        currencyOrdinals.put(currency, newOrdinal);
+        header.putInt(HEADER_CURRENCY_COUNT, currencyDictionary.size());
+        return newOrdinal;
+    }
+
+    /**
+     * Writes every field of an asset into the given row
+     * @param existing : true if the row holds an asset being replaced, false if it is a new row
+     */
+    private void writeRow(int row, Asset asset, boolean existing) throws IOException {
+        // encode everything first so an out-of-range value leaves the row untouched
+        long purchasePrice = toScaled(asset.getPurchasePrice());
+        long currentValue = toScaled(asset.getCurrentValue());
+        short currency = asset.getCurrency() != null ? currencyOrdinal(asset.getCurrency()) : -1;
+
+        writeUuid(ids, row, asset.getId());
+        writeUuid(userIds, row, asset.getUserId());
+        writeName(row, asset.getName(), existing);
+        types.buffer.put(types.offset(row), (byte) (asset.getType() != null ? asset.getType().ordinal() : -1));
+        purchasePrices.buffer.putLong(purchasePrices.offset(row), purchasePrice);
+        purchaseDates.buffer.putLong(purchaseDates.offset(row),
+                asset.getPurchaseDate() != null ? asset.getPurchaseDate().getTime() : NULL_LONG);
+        currentValues.buffer.putLong(currentValues.offset(row), currentValue);
+        currencies.buffer.putShort(currencies.offset(row), currency);
+    }
+
+    /**
+     * Moves the contents of one row into another, used to keep the columns dense after a removal
+     */
+    private void copyRow(int from, int to) {
+        for (Column column : columns) {
+            for (int i = 0; i < column.width; i++) {
+                column.buffer.put(column.offset(to) + i, column.buffer.get(column.offset(from) + i));
+            }
+        }
+    }
+
+    /**
+     * Creates an asset view of a row
+     */
+    private Asset readRow(int row) {
+        byte type = types.buffer.get(types.offset(row));
+        long purchaseDate = purchaseDates.buffer.getLong(purchaseDates.offset(row));
+        short currency = currencies.buffer.getShort(currencies.offset(row));
+        return new Asset(readUuid(ids, row), readUuid(userIds, row), readName(row),
+                type >= 0 ? ASSET_TYPES[type] : null,
+                fromScaled(purchasePrices.buffer.getLong(purchasePrices.offset(row))),
+                purchaseDate != NULL_LONG ? new Date(purchaseDate) : null,
+                fromScaled(currentValues.buffer.getLong(currentValues.offset(row))),
+                currency >= 0 ? currencyDictionary.get(currency) : null);
+    }
+
+    private static void writeUuid(Column column, int row, UUID id) {
+        int offset = column.offset(row);
+        column.buffer.putLong(offset, id != null ? id.getMostSignificantBits() : 0);
+        column.buffer.putLong(offset + 8, id != null ? id.getLeastSignificantBits() : 0);
+    }
+
+    private static UUID readUuid(Column column, int row) {
+        int offset = column.offset(row);
+        long most = column.buffer.getLong(offset);
+        long least = column.buffer.getLong(offset + 8);
+        return most == 0 && least == 0 ? null : new UUID(most, least);
+    }
+
+    private boolean isUserRow(int row, long userMost, long userLeast) {
+        int offset = userIds.offset(row);
+        return userIds.buffer.getLong(offset) == userMost && userIds.buffer.getLong(offset + 8) == userLeast;
+    }
+
+    /**
+     * Stores a name in the heap file and points the row's name column at it, reusing the row's current
+     * slot when the new name fits in it
+     * @param existing : true if the row's name column points at its own name, false for a new row whose column
+     *                   may still hold a stale pointer
+     */
+    private void writeName(int row, String name, boolean existing) throws IOException {
+        int offset = names.offset(row);
+        long oldPosition = existing ? names.buffer.getLong(offset) : -1;
+        int oldLength = oldPosition >= 0 ? names.buffer.getInt(offset + 8) : 0;
+        if (name == null) {
+            names.buffer.putLong(offset, -1);
+            names.buffer.putInt(offset + 8, 0);
+            nameHeapGarbage += oldLength;
+            return;
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        long position;
+        if (oldPosition >= 0 && bytes.length <= oldLength) {
+            position = oldPosition;
+            nameHeapGarbage += oldLength - bytes.length;
+        }
+        else {
+            position = nameHeap.size();
+            nameHeapGarbage += oldLength;
+        }
+        nameHeap.write(ByteBuffer.wrap(bytes), position);
+        names.buffer.putLong(offset, position);
+        names.buffer.putInt(offset + 8, bytes.length);
+    }
+
+    /**
+     * @return the number of heap bytes used by the row's name
+     */
+    private int nameLength(int row) {
+        int offset = names.offset(row);
+        return names.buffer.getLong(offset) >= 0 ? names.buffer.getInt(offset + 8) : 0;
+    }
+
+    private String readName(int row) {
+        try {
+            byte[] bytes = readNameBytes(row);
+            return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        }
+        catch (IOException exception) {
+            System.err.println("Error reading asset name from " + directory.getPath() + ": " + exception.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] readNameBytes(int row) throws IOException {
+        int offset = names.offset(row);
+        long position = names.buffer.getLong(offset);
+        if (position < 0) {
+            return null;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(names.buffer.getInt(offset + 8));
+        while (bytes.hasRemaining()) {
+            if (nameHeap.read(bytes, position + bytes.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(bytes.array(), bytes.position());
+    }
+
+    /**
+     * Rewrites the name heap without unused bytes once they outweigh the names in use
+     */
+    private void compactNameHeapIfNeeded() {
+        try {
+            long size = nameHeap.size();
+            if (nameHeapGarbage >= MIN_NAME_HEAP_GARBAGE && nameHeapGarbage >= size - nameHeapGarbage) {
+                compactNameHeap();
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error compacting asset names in " + directory.getPath() + ": " + exception.getMessage());
+        }
+    }
+
+    private void compactNameHeap() throws IOException {
+        // names move towards the start of the file in position order, so each one is read before it is overwritten
+        List<Integer> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (names.buffer.getLong(names.offset(row)) >= 0) {
+                rows.add(row);
+            }
+        }
+        rows.sort(Comparator.comparingLong(row -> names.buffer.getLong(names.offset(row))));
+
+        long position = 0;
+        for (int row : rows) {
+            byte[] bytes = readNameBytes(row);
+            nameHeap.write(ByteBuffer.wrap(bytes), position);
+            names.buffer.putLong(names.offset(row), position);
+            names.buffer.putInt(names.offset(row) + 8, bytes.length);
+            position += bytes.length;
+        }
+        nameHeap.truncate(position);
+        nameHeapGarbage = 0;
+    }
+
+    private static long toScaled(BigDecimal value) throws IOException {
+        if (value == null) {
+            return NULL_LONG;
+        }
+        try {
+            long scaled = value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+            if (scaled == NULL_LONG) {
+                throw new ArithmeticException();
+            }
+            return scaled;
+        }
+        catch (ArithmeticException exception) {
+            throw new IOException("Value does not fit the column store without rounding: " + value.toPlainString());
+        }
+    }
+
+    private static BigDecimal fromScaled(long scaled) {
+        if (scaled == NULL_LONG) {
+            return null;
+        }
+        BigDecimal value = BigDecimal.valueOf(scaled, SCALE).stripTrailingZeros();
+        return value.scale() < 2 ? value.setScale(2) : value;
+    }
+
+    @Override
+    public synchronized boolean addAsset(Asset asset) {
+        if (asset == null || rowsById.containsKey(asset.getId())) {
+            return false;
+        }
+
+        try {
+            ensureCapacity(rowCount + 1);
+            writeRow(rowCount, asset, false);
+        }
+        catch (IOException exception) {
+            System.err.println("Error adding asset to " + directory.getPath() + ": " + exception.getMessage());
+            return false;
+        }
+        rowsById.put(asset.getId(), rowCount);
+        setRowCount(rowCount + 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAsset(UUID assetId) {
+        Integer row = rowsById.remove(assetId);
+        if (row == null) {
+            return false;
+        }
+
+        nameHeapGarbage += nameLength(row);
+        int last = rowCount - 1;
+        if (row != last) {
+            copyRow(last, row);
+            rowsById.put(readUuid(ids, row), row);
+        }
+        setRowCount(last);
+        compactNameHeapIfNeeded();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateAsset(UUID assetId, Asset newAsset) {
+        if (assetId == null || newAsset == null) {
+            return false;
+        }
+        Integer row = rowsById.get(assetId);
+        if (row == null) {
+            return false;
+        }
+
+        try {
+            writeRow(row, newAsset, true);
+            writeUuid(ids, row, assetId);
+        }
+        catch (IOException exception) {
+            System.err.println("Error updating asset in " + directory.getPath() + ": " + exception.getMessage());
+            return false;
+        }
+        compactNameHeapIfNeeded();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
+        if (assetId == null || newValue == null) {
+            return false;
+        }
+        Integer row = rowsById.get(assetId);
+        if (row == null) {
+            return false;
+        }
+
+        try {
+            currentValues.buffer.putLong(currentValues.offset(row), toScaled(newValue));
+        }
+        catch (IOException exception) {
+            System.err.println("Error updating asset value in " + directory.getPath() + ": " + exception.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Asset getAssetById(UUID assetId) {
+        Integer row = assetId != null ? rowsById.get(assetId) : null;
+        return row != null ? readRow(row) : null;
+    }
+
+    /**
+     * Gets all assets for a user by scanning the user id column, creating assets only for matching rows
+     * @param userId : user id
+     * @return list of assets
+     */
+    @Override
+    public synchronized List<Asset> getUserAssets(UUID userId) {
+        if (userId == null) {
+            return List.of();
+        }
+
+        long userMost = userId.getMostSignificantBits();
+        long userLeast = userId.getLeastSignificantBits();
+        List<Asset> userAssets = new ArrayList<>();
+        for (int row = 0; row < rowCount; row++) {
+            if (isUserRow(row, userMost, userLeast)) {
+                userAssets.add(readRow(row));
+            }
+        }
+        return userAssets;
+    }
+
+    /**
+     * Sums the scaled current values of the user's rows without creating any assets
+     * @param userId : user id
+     * @return net worth
+     */
+    @Override
+    public synchronized BigDecimal calculateNetWorth(UUID userId) {
+        if (userId == null) {
+            return BigDecimal.ZERO;
+        }
+
+        long userMost = userId.getMostSignificantBits();
+        long userLeast = userId.getLeastSignificantBits();
+        BigDecimal total = BigDecimal.ZERO;
+        long partial = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (!isUserRow(row, userMost, userLeast)) {
+                continue;
+            }
+            long value = currentValues.buffer.getLong(currentValues.offset(row));
+            if (value == NULL_LONG) {
+                continue;
+            }
+            try {
+                partial = Math.addExact(partial, value);
+            }
+            catch (ArithmeticException overflow) {
+                total = total.add(BigDecimal.valueOf(partial, SCALE));
+                partial = value;
+            }
+        }
+        return total.add(BigDecimal.valueOf(partial, SCALE));
+    }
+
+    /**
+     * Calculates the percentage of each asset type in a user's assets from the type and value columns.
+     * <p>
+     * This method directly sums values and does NOT perform currency conversion.
+     *
+     * @param userId The ID of the user.
+     * @return A map of asset Types to their percentages.
+     */
+    @Override
+    public synchronized Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
+        Map<AssetType, BigDecimal> distribution = new HashMap<>();
+        if (userId == null) {
+            return distribution;
+        }
+
+        long userMost = userId.getMostSignificantBits();
+        long userLeast = userId.getLeastSignificantBits();
+        BigDecimal[] totalsByType = new BigDecimal[ASSET_TYPES.length];
+        BigDecimal total = BigDecimal.ZERO;
+        for (int row = 0; row < rowCount; row++) {
+            if (!isUserRow(row, userMost, userLeast)) {
+                continue;
+            }
+            byte type = types.buffer.get(types.offset(row));
+            long value = currentValues.buffer.getLong(currentValues.offset(row));
+            if (type < 0 || value == NULL_LONG) {
+                continue;
+            }
+            BigDecimal decimal = BigDecimal.valueOf(value, SCALE);
+            totalsByType[type] = totalsByType[type] == null ? decimal : totalsByType[type].add(decimal);
+            total = total.add(decimal);
+        }
+
+        if (total.signum() == 0) {
+            return distribution;
+        }
+        for (AssetType type : ASSET_TYPES) {
+            if (totalsByType[type.ordinal()] != null) {
+                distribution.put(type, totalsByType[type.ordinal()].divide(total, 4, RoundingMode.HALF_UP)
+                        .multiply(new BigDecimal("100")));
+            }
+        }
+        return distribution;
+    }
+}
@@ -5,37 +5,110 @@ import fcai.prospera.model.AssetType;
 
 import java.io.*;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implements the AssetRepository interface using a file to store assets
  */
-public class AssetFileRepository implements AssetRepository {
+public final class AssetFileRepository implements AssetRepository {
+
+    private static final String ASSETS_FILE_PATH = "data/assets.dat";
+    private static final int COMPACTION_THRESHOLD = 10_000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
 
-    private final String ASSETS_FILE_PATH = "data/assets.ser";
     private final File assetsStorage;
+    private final AssetJournal journal;
+    private final WriteBehindWriter writer;
+    private ExecutorService compactor;
+    private boolean compacting;
+    private int batchDepth;
+    private boolean batchDirty;
     private HashMap<UUID, Asset> assets;
+    private final AssetIndex index = new AssetIndex();
+    private final AssetAggregates aggregates = new AssetAggregates();
 
     public AssetFileRepository() {
-        assetsStorage = new File(ASSETS_FILE_PATH);
+        this(ASSETS_FILE_PATH, false);
+    }
+
+    /**
+     * @param filePath : the path of the assets file
+     * @param journaled : if true, each mutation is appended to a journal next to the assets file
+     *                  and the assets file is only rewritten by periodic background compaction
+     */
+    public AssetFileRepository(String filePath, boolean journaled) {
+        this(filePath, journaled, null);
+    }
+
+    /**
+     * @param filePath : the path of the assets file
+     * @param journaled : if true, each mutation is appended to a journal next to the assets file
+     *                  and the assets file is only rewritten by periodic background compaction
+     * @param writeBehindWindow : if not null, mutations only mark the repository dirty and the assets file is rewritten
+     *                          by a background thread once per window; cannot be combined with journaling
+     */
+    public AssetFileRepository(String filePath, boolean journaled, Duration writeBehindWindow) {
+        if (journaled && writeBehindWindow != null) {
+            throw new IllegalArgumentException("An asset repository is either journaled or write-behind, not both");
+        }
+
+        assetsStorage = new File(filePath);
         assets = new HashMap<>();
-        loadAssets();
+        boolean migrated = loadAssets();
+        journal = journaled ? new AssetJournal(assetsStorage) : null;
+        if (journal != null) {
+            journal.replay(assets);
+        }
+        writer = writeBehindWindow != null
+                ? new WriteBehindWriter(assetsStorage.toPath(), this, () -> BinaryCodec.encodeAssets(assets.values()),
+                        writeBehindWindow, "asset-write-behind")
+                : null;
+        index.rebuild(assets.values());
+        aggregates.rebuild(assets.values());
+        if (migrated) {
+            saveAssets();
+        }
     }
 
     /**
-     * Loads assets from file
+     * Loads assets from file.
+     * <p>
+     * Files written with Java serialization (either at the configured path or at its {@code .ser} sibling)
+     * are still read so existing data can be migrated to the binary format.
+     *
+     * @return true if the assets were read from a Java serialization file and should be rewritten
      */
-    private void loadAssets() {
-        if (!assetsStorage.exists() || assetsStorage.length() == 0) {
-            return;
+    private boolean loadAssets() {
+        File source = assetsStorage;
+        if (!source.exists() || source.length() == 0) {
+            source = BinaryCodec.legacyFile(assetsStorage);
+            if (!source.exists() || source.length() == 0) {
+                return false;
+            }
+        }
+
+        if (BinaryCodec.isBinary(source)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+                assets = BinaryCodec.decodeAssets(in);
+            }
+            catch (IOException exception) {
+                System.err.println("Error loading assets from " + source.getPath() + ": " + exception.getMessage());
+            }
+            return false;
         }
 
-        try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(assetsStorage))) {
+        try (ObjectInputStream objectIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(source)))) {
             assets = (HashMap<UUID, Asset>) objectIn.readObject();
+            return true;
         }
         catch (IOException | ClassNotFoundException exception) {
-            System.err.println("Error loading assets from " + ASSETS_FILE_PATH + ": " + exception.getMessage());
+            System.err.println("Error loading assets from " + source.getPath() + ": " + exception.getMessage());
+            return false;
         }
     }
 
@@ -43,33 +116,234 @@ public class AssetFileRepository implements AssetRepository {
      * Saves assets to file
      */
     private void saveAssets() {
-        try (ObjectOutputStream objectOut = new ObjectOutputStream(new FileOutputStream(assetsStorage))) {
-            objectOut.writeObject(assets);
+        try {
+            WriteBehindWriter.writeAtomically(assetsStorage.toPath(), BinaryCodec.encodeAssets(assets.values()));
+        }
+        catch (IOException exception) {
+            System.err.println("Error saving assets to " + assetsStorage.getPath() + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Persists a mutation, either by appending it to the journal, by marking the repository dirty for the
+     * write-behind writer, or by rewriting the assets file
+     * @param record : writes the journal record describing the mutation
+     */
+    private void persist(JournalRecord record) {
+        if (writer != null) {
+            writer.markDirty();
+            return;
+        }
+        if (journal == null) {
+            if (batchDepth > 0) {
+                batchDirty = true;
+                return;
+            }
+            saveAssets();
+            return;
+        }
+
+        try {
+            record.writeTo(journal);
+        }
+        catch (IOException exception) {
+            System.err.println("Error appending to asset journal for " + assetsStorage.getPath() + ": " + exception.getMessage());
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Starts a background compaction once the journal has grown past the threshold
+     */
+    private void compactIfDue() {
+        if (compacting || journal.getRecordCount() < COMPACTION_THRESHOLD) {
+            return;
+        }
+
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "asset-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compacting = true;
+        compactor.execute(this::compact);
+    }
+
+    /**
+     * Folds the journal into a new assets snapshot.
+     * <p>
+     * The snapshot is serialized and the journal rotated while holding the repository lock;
+     * writing the snapshot to disk happens outside of it, through a temporary file that is renamed over the old one.
+     */
+    private void compact() {
+        byte[] snapshot;
+        synchronized (this) {
+            try {
+                snapshot = BinaryCodec.encodeAssets(assets.values());
+                journal.rotate();
+            }
+            catch (IOException exception) {
+                System.err.println("Error compacting asset journal: " + exception.getMessage());
+                compacting = false;
+                return;
+            }
+        }
+
+        try {
+            WriteBehindWriter.writeAtomically(assetsStorage.toPath(), snapshot);
+            journal.discardRotated();
         }
         catch (IOException exception) {
-            System.err.println("Error saving assets to " + ASSETS_FILE_PATH + ": " + exception.getMessage());
+            // the rotated journal is kept and replayed on next startup
+            System.err.println("Error writing assets snapshot to " + assetsStorage.getPath() + ": " + exception.getMessage());
+        }
+        finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Starts writing pending write-behind changes now; does nothing in the other storage modes,
+     * where every change is already on disk when the mutating call returns
+     */
+    public void flush() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Flushes and waits until every change made so far is on disk
+     * @param timeout : the maximum time to wait
+     * @param unit : the unit of the timeout
+     * @return true if all changes are durable, false if the timeout elapsed or the wait was interrupted
+     */
+    public boolean awaitDurable(long timeout, TimeUnit unit) {
+        if (writer == null) {
+            return true;
+        }
+
+        try {
+            return writer.awaitDurable(timeout, unit);
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs several mutations under the repository lock. The assets file is rewritten once at the end of the batch,
+     * or, when journaled, the batch's journal records are written out together.
+     * @param changes : the mutations to run, calling this repository's methods
+     */
+    @Override
+    public synchronized void batch(Runnable changes) {
+        beginBatch();
+        try {
+            changes.run();
+        }
+        finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Starts a batch that is ended by {@link #endBatch()}, for callers that already serialize access to this repository
+     */
+    synchronized void beginBatch() {
+        if (batchDepth++ == 0 && journal != null) {
+            journal.setFlushDeferred(true);
+        }
+    }
+
+    /**
+     * Ends a batch, persisting its mutations if it was the outermost one
+     */
+    synchronized void endBatch() {
+        if (--batchDepth > 0) {
+            return;
+        }
+
+        if (journal != null) {
+            journal.setFlushDeferred(false);
+            try {
+                journal.flush();
+            }
+            catch (IOException exception) {
+                System.err.println("Error appending to asset journal for " + assetsStorage.getPath() + ": " + exception.getMessage());
+            }
+        }
+        if (batchDirty) {
+            batchDirty = false;
+            saveAssets();
         }
     }
 
+    /**
+     * Writes pending changes and stops the repository's background threads.
+     * The repository must not be used afterwards.
+     */
+    public void close() {
+        if (writer != null) {
+            try {
+                if (!writer.close(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    System.err.println("Timed out writing pending changes to " + assetsStorage.getPath());
+                }
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (compactor != null) {
+                compactor.shutdown();
+            }
+            if (journal != null) {
+                try {
+                    journal.close();
+                }
+                catch (IOException exception) {
+                    System.err.println("Error closing asset journal for " + assetsStorage.getPath() + ": " + exception.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every stored asset, regardless of user
+     */
+    synchronized List<Asset> getAllAssets() {
+        return new ArrayList<>(assets.values());
+    }
+
     @Override
-    public boolean addAsset(Asset asset) {
+    public synchronized boolean addAsset(Asset asset) {
         if (asset == null || assets.containsKey(asset.getId())) {
             return false;
         }
 
         assets.put(asset.getId(), asset);
-        saveAssets();
+        index.index(asset);
+        aggregates.apply(asset);
+        persist(journal -> journal.appendPut(asset));
         return true;
     }
 
     @Override
-    public boolean removeAsset(UUID assetId) {
+    public synchronized boolean removeAsset(UUID assetId) {
         Asset removedAsset = assets.remove(assetId);
         if (removedAsset == null) {
             return false;
         }
 
-        saveAssets();
+        index.unindex(assetId);
+        aggregates.remove(assetId);
+        persist(journal -> journal.appendRemove(assetId));
         return true;
     }
 
@@ -77,17 +351,20 @@ public class AssetFileRepository implements AssetRepository {
      * Updates the asset with the given ID with the given new asset data.
      *
      * @param assetId the ID of the asset to update
-     * @param newAsset the new asset data
+     * @param newAsset the new asset data, with the same ID
      * @return true if the update is successful, false otherwise
      */
     @Override
-    public boolean updateAsset(UUID assetId, Asset newAsset) {
-        if (assetId == null || newAsset == null || !assets.containsKey(assetId)) {
+    public synchronized boolean updateAsset(UUID assetId, Asset newAsset) {
+        // the index, the aggregates and the journal all key the asset by its own id
+        if (assetId == null || newAsset == null || !assetId.equals(newAsset.getId()) || !assets.containsKey(assetId)) {
             return false;
         }
 
         assets.put(assetId, newAsset);
-        saveAssets();
+        index.index(newAsset);
+        aggregates.apply(newAsset);
+        persist(journal -> journal.appendPut(newAsset));
         return true;
     }
 
@@ -99,51 +376,124 @@ public class AssetFileRepository implements AssetRepository {
      * @return true if the asset's value was successfully updated, false if the asset does not exist or input is invalid
      */
     @Override
-    public boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
+    public synchronized boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
         if (assetId == null || newValue == null || !assets.containsKey(assetId)) {
             return false;
         }
 
         Asset asset = assets.get(assetId);
         asset.setCurrentValue(newValue);
-        saveAssets();
+        aggregates.apply(asset);
+        persist(journal -> journal.appendCurrentValue(assetId, newValue));
         return true;
     }
 
     @Override
-    public Asset getAssetById(UUID assetId) {
+    public synchronized Asset getAssetById(UUID assetId) {
         return (assetId != null ? assets.get(assetId) : null);
     }
 
     @Override
-    public List<Asset> getUserAssets(UUID userId) {
+    public synchronized List<Asset> getUserAssets(UUID userId) {
         if (userId == null) {
             return List.of();
         }
 
-        List<Asset> userAssets = new ArrayList<>();
-        for (Asset asset : assets.values()) {
-            if (userId.equals(asset.getUserId())) {
-                userAssets.add(asset);
-            }
+        return resolve(index.getUserAssetIds(userId));
+    }
+
+    /**
+     * Gets a user's assets of the given type
+     * @param userId : user id
+     * @param type : asset type
+     * @return list of assets
+     */
+    public synchronized List<Asset> getUserAssetsByType(UUID userId, AssetType type) {
+        if (userId == null || type == null) {
+            return List.of();
+        }
+
+        return resolve(intersect(index.getUserAssetIds(userId), index.getAssetIdsByType(type)));
+    }
+
+    /**
+     * Gets a user's assets held in the given currency
+     * @param userId : user id
+     * @param currency : currency
+     * @return list of assets
+     */
+    public synchronized List<Asset> getUserAssetsByCurrency(UUID userId, Currency currency) {
+        if (userId == null || currency == null) {
+            return List.of();
+        }
+
+        return resolve(intersect(index.getUserAssetIds(userId), index.getAssetIdsByCurrency(currency)));
+    }
+
+    /**
+     * Gets a user's assets purchased in a date range from the purchase date index
+     * @param userId : user id
+     * @param from : the earliest purchase date, inclusive, or null for no lower bound
+     * @param to : the latest purchase date, exclusive, or null for no upper bound
+     * @return list of assets, in purchase date order
+     */
+    @Override
+    public synchronized List<Asset> getUserAssetsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        if (userId == null) {
+            return List.of();
+        }
+
+        return resolve(index.getUserAssetIdsPurchasedBetween(userId, from, to));
+    }
+
+    /**
+     * Looks up the assets for a set of indexed ids
+     */
+    private List<Asset> resolve(Collection<UUID> assetIds) {
+        List<Asset> result = new ArrayList<>(assetIds.size());
+        for (UUID assetId : assetIds) {
+            result.add(assets.get(assetId));
         }
+        return result;
+    }
 
-        return userAssets;
+    /**
+     * Intersects two id sets by iterating over the smaller one
+     */
+    private static Collection<UUID> intersect(Set<UUID> first, Set<UUID> second) {
+        Set<UUID> smaller = first.size() <= second.size() ? first : second;
+        Set<UUID> larger = smaller == first ? second : first;
+        List<UUID> result = new ArrayList<>();
+        for (UUID assetId : smaller) {
+            if (larger.contains(assetId)) {
+                result.add(assetId);
+            }
+        }
+        return result;
     }
 
     /**
-     * Calculates the total net worth of a user's assets
+     * Gets the total net worth of a user's assets from the user's running totals
      * @param userId the id of the user
      * @return the total net worth of the user's assets
      */
     @Override
-    public BigDecimal calculateNetWorth(UUID userId) {
-        List<Asset> userAssets = getUserAssets(userId);
-        return userAssets.stream().map(Asset::getCurrentValue).reduce(BigDecimal.ZERO, BigDecimal::add);
+    public synchronized BigDecimal calculateNetWorth(UUID userId) {
+        return aggregates.getNetWorth(userId);
     }
 
     /**
-     * Calculates the percentage of each asset type in a user's assets.
+     * Gets the sum of a user's asset values per currency from the user's running totals
+     * @param userId the id of the user
+     * @return a map of currencies to the total value held in them
+     */
+    @Override
+    public synchronized Map<Currency, BigDecimal> getUserTotalsByCurrency(UUID userId) {
+        return aggregates.getTotalsByCurrency(userId);
+    }
+
+    /**
+     * Calculates the percentage of each asset type in a user's assets from the user's running totals.
      * <p>
      * This method directly sums values and does NOT perform currency conversion.
      *
@@ -151,18 +501,15 @@ public class AssetFileRepository implements AssetRepository {
      * @return A map of asset Types to their percentages.
      */
     @Override
-    public Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
-        List<Asset> userAssets = getUserAssets(userId);
-        BigDecimal totalNetWorth = calculateNetWorth(userId);
-        Map<AssetType, BigDecimal> distribution = new HashMap<>();
-
-        for (Asset asset : userAssets) {
-            AssetType type = asset.getType();
-            BigDecimal assetValue = asset.getCurrentValue();
-            BigDecimal percentage = assetValue.divide(totalNetWorth, 4, RoundingMode.HALF_UP)
-                    .multiply(new BigDecimal("100"));
-            distribution.put(type, distribution.getOrDefault(type, BigDecimal.ZERO).add(percentage));
-        }
-        return distribution;
+    public synchronized Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
+        return aggregates.getDistribution(userId);
+    }
+
+    /**
+     * A mutation record to be appended to the asset journal
+     */
+    @FunctionalInterface
+    private interface JournalRecord {
+        void writeTo(AssetJournal journal) throws IOException;
     }
 }
@@ -0,0 +1,150 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Secondary indexes over the assets held by a repository: by user, by asset type, by currency and,
+ * per user, by purchase date.
+ * <p>
+ * The indexed keys of every asset are remembered, because assets are mutable and may already hold
+ * their new values by the time the repository is told about an update.
+ */
+class AssetIndex {
+    /**
+     * The keys an asset was indexed under
+     */
+    private record IndexKey(UUID userId, AssetType type, Currency currency, Instant purchaseDate) { }
+
+    private final Map<UUID, IndexKey> indexedKeys = new HashMap<>();
+    private final Map<UUID, Set<UUID>> byUser = new HashMap<>();
+    private final Map<AssetType, Set<UUID>> byType = new EnumMap<>(AssetType.class);
+    private final Map<Currency, Set<UUID>> byCurrency = new HashMap<>();
+    private final Map<UUID, NavigableMap<Instant, Set<UUID>>> byUserPurchaseDate = new HashMap<>();
+
+    /**
+     * Clears the index and indexes all the given assets in one pass
+     * @param assets : the assets to index
+     */
+    void rebuild(Collection<Asset> assets) {
+        indexedKeys.clear();
+        byUser.clear();
+        byType.clear();
+        byCurrency.clear();
+        byUserPurchaseDate.clear();
+        for (Asset asset : assets) {
+            index(asset);
+        }
+    }
+
+    /**
+     * Indexes an asset, replacing the keys it was previously indexed under
+     * @param asset : the added or updated asset
+     */
+    void index(Asset asset) {
+        unindex(asset.getId());
+
+        Date purchaseDate = asset.getPurchaseDate();
+        IndexKey key = new IndexKey(asset.getUserId(), asset.getType(), asset.getCurrency(),
+                purchaseDate != null ? purchaseDate.toInstant() : null);
+        indexedKeys.put(asset.getId(), key);
+        add(byUser, key.userId(), asset.getId());
+        add(byType, key.type(), asset.getId());
+        add(byCurrency, key.currency(), asset.getId());
+        if (key.userId() != null) {
+            add(byUserPurchaseDate.computeIfAbsent(key.userId(), userId -> new TreeMap<>()), key.purchaseDate(), asset.getId());
+        }
+    }
+
+    /**
+     * Removes an asset from the index
+     * @param assetId : the id of the removed asset
+     */
+    void unindex(UUID assetId) {
+        IndexKey key = indexedKeys.remove(assetId);
+        if (key == null) {
+            return;
+        }
+
+        remove(byUser, key.userId(), assetId);
+        remove(byType, key.type(), assetId);
+        remove(byCurrency, key.currency(), assetId);
+        NavigableMap<Instant, Set<UUID>> byPurchaseDate = key.userId() != null ? byUserPurchaseDate.get(key.userId()) : null;
+        if (byPurchaseDate != null) {
+            remove(byPurchaseDate, key.purchaseDate(), assetId);
+            if (byPurchaseDate.isEmpty()) {
+                byUserPurchaseDate.remove(key.userId());
+            }
+        }
+    }
+
+    /**
+     * @param userId : user id
+     * @return the ids of the user's assets
+     */
+    Set<UUID> getUserAssetIds(UUID userId) {
+        return byUser.getOrDefault(userId, Set.of());
+    }
+
+    /**
+     * @param type : asset type
+     * @return the ids of all assets of the given type
+     */
+    Set<UUID> getAssetIdsByType(AssetType type) {
+        return byType.getOrDefault(type, Set.of());
+    }
+
+    /**
+     * @param currency : currency
+     * @return the ids of all assets held in the given currency
+     */
+    Set<UUID> getAssetIdsByCurrency(Currency currency) {
+        return byCurrency.getOrDefault(currency, Set.of());
+    }
+
+    /**
+     * @param userId : user id
+     * @param from : the earliest purchase date, inclusive, or null for no lower bound
+     * @param to : the latest purchase date, exclusive, or null for no upper bound
+     * @return the ids of the user's assets purchased in the range, in purchase date order; assets without a purchase date are not included
+     */
+    List<UUID> getUserAssetIdsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        NavigableMap<Instant, Set<UUID>> byPurchaseDate = byUserPurchaseDate.get(userId);
+        if (byPurchaseDate == null || (from != null && to != null && !from.isBefore(to))) {
+            return List.of();
+        }
+
+        NavigableMap<Instant, Set<UUID>> range = byPurchaseDate;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, false);
+        }
+        List<UUID> result = new ArrayList<>();
+        for (Set<UUID> ids : range.values()) {
+            result.addAll(ids);
+        }
+        return result;
+    }
+
+    private static <K> void add(Map<K, Set<UUID>> index, K key, UUID assetId) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new HashSet<>()).add(assetId);
+        }
+    }
+
+    private static <K> void remove(Map<K, Set<UUID>> index, K key, UUID assetId) {
+        if (key == null) {
+            return;
+        }
+
+        Set<UUID> ids = index.get(key);
+        if (ids != null && ids.remove(assetId) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
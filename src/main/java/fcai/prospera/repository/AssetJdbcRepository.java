@@ -0,0 +1,487 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.Date;
+import java.util.function.Function;
+
+/**
+ * Implements the AssetRepository interface on an embedded H2 database file.
+ * <p>
+ * Totals and distributions are computed by the database with {@code SUM ... GROUP BY},
+ * so no {@link Asset} objects are created for them.
+ */
+public class AssetJdbcRepository implements AssetRepository {
+
+    private static final String DATABASE_URL = "jdbc:h2:./data/prospera";
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS assets (
+                id UUID PRIMARY KEY,
+                user_id UUID,
+                name VARCHAR(255),
+                type VARCHAR(32),
+                purchase_price DECIMAL(38, 10),
+                purchase_date TIMESTAMP WITH TIME ZONE,
+                current_value DECIMAL(38, 10),
+                currency CHAR(3)
+            )""";
+    private static final String CREATE_USER_INDEX = "CREATE INDEX IF NOT EXISTS assets_user_id ON assets (user_id)";
+    private static final String CREATE_PURCHASE_DATE_INDEX = "CREATE INDEX IF NOT EXISTS assets_user_id_purchase_date ON assets (user_id, purchase_date)";
+
+    private static final String COLUMNS = "id, user_id, name, type, purchase_price, purchase_date, current_value, currency";
+    private static final String INSERT = "INSERT INTO assets (" + COLUMNS + ") SELECT ?, ?, ?, ?, ?, ?, ?, ? "
+            + "WHERE NOT EXISTS (SELECT 1 FROM assets WHERE id = ?)";
+    private static final String UPDATE = "UPDATE assets SET user_id = ?, name = ?, type = ?, purchase_price = ?, "
+            + "purchase_date = ?, current_value = ?, currency = ? WHERE id = ?";
+    private static final String UPDATE_CURRENT_VALUE = "UPDATE assets SET current_value = ? WHERE id = ?";
+    private static final String DELETE = "DELETE FROM assets WHERE id = ?";
+    private static final String SELECT_BY_ID = "SELECT " + COLUMNS + " FROM assets WHERE id = ?";
+    private static final String SELECT_BY_USER = "SELECT " + COLUMNS + " FROM assets WHERE user_id = ?";
+    private static final String SELECT_BY_USER_PURCHASE_DATE = "SELECT " + COLUMNS + " FROM assets WHERE user_id = ? AND purchase_date IS NOT NULL";
+    private static final String SUM_BY_USER = "SELECT SUM(current_value) FROM assets WHERE user_id = ?";
+    private static final String SUM_BY_CURRENCY = "SELECT currency, SUM(current_value) FROM assets "
+            + "WHERE user_id = ? AND currency IS NOT NULL AND current_value IS NOT NULL GROUP BY currency";
+    private static final String SUM_BY_TYPE = "SELECT type, SUM(current_value) FROM assets "
+            + "WHERE user_id = ? AND current_value IS NOT NULL GROUP BY type";
+
+    private final Connection connection;
+
+    public AssetJdbcRepository() throws SQLException {
+        this(DATABASE_URL);
+    }
+
+    /**
+     * @param jdbcUrl : the database to connect to, e.g. {@code jdbc:h2:./data/prospera}
+     * @throws SQLException : if the database could not be opened or its schema created
+     */
+    public AssetJdbcRepository(String jdbcUrl) throws SQLException {
+        connection = DriverManager.getConnection(jdbcUrl);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            statement.execute(CREATE_USER_INDEX);
+            statement.execute(CREATE_PURCHASE_DATE_INDEX);
+        }
+    }
+
+    /**
+     * Closes the database connection
+     */
+    public synchronized void close() {
+        try {
+            connection.close();
+        }
+        catch (SQLException exception) {
+            System.err.println("Error closing asset database: " + exception.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized boolean addAsset(Asset asset) {
+        if (asset == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            bindInsert(statement, asset);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error adding asset: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs several mutations in one database transaction, rolled back if the changes throw
+     * @param changes : the mutations to run, calling this repository's methods
+     */
+    @Override
+    public synchronized void batch(Runnable changes) {
+        try {
+            inTransaction(() -> {
+                changes.run();
+                return null;
+            });
+        }
+        catch (SQLException exception) {
+            System.err.println("Error running asset batch: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Adds several assets with one batched statement; assets whose id already exists are skipped
+     * @param assets : assets to be added
+     * @return whether each asset was added, by asset id
+     */
+    @Override
+    public synchronized Map<UUID, Boolean> addAssets(Collection<Asset> assets) {
+        List<Asset> batch = new ArrayList<>(assets.size());
+        for (Asset asset : assets) {
+            if (asset != null) {
+                batch.add(asset);
+            }
+        }
+        return executeBatch(INSERT, batch, Asset::getId, AssetJdbcRepository::bindInsert, "adding assets");
+    }
+
+    /**
+     * Removes several assets with one batched statement
+     * @param assetIds : asset ids to be removed
+     * @return whether each asset was removed, by asset id
+     */
+    @Override
+    public synchronized Map<UUID, Boolean> removeAssets(Collection<UUID> assetIds) {
+        List<UUID> batch = assetIds.stream().filter(Objects::nonNull).toList();
+        return executeBatch(DELETE, batch, assetId -> assetId, (statement, assetId) -> statement.setObject(1, assetId), "removing assets");
+    }
+
+    /**
+     * Updates the current values of several assets with one batched statement
+     * @param newValues : new value by asset id
+     * @return whether each asset was updated, by asset id
+     */
+    @Override
+    public synchronized Map<UUID, Boolean> updateCurrentValues(Map<UUID, BigDecimal> newValues) {
+        List<Map.Entry<UUID, BigDecimal>> batch = newValues.entrySet().stream()
+                .filter(entry -> entry.getKey() != null && entry.getValue() != null)
+                .toList();
+        Map<UUID, Boolean> results = executeBatch(UPDATE_CURRENT_VALUE, batch, Map.Entry::getKey, (statement, entry) -> {
+            statement.setBigDecimal(1, entry.getValue());
+            statement.setObject(2, entry.getKey());
+        }, "updating asset values");
+        for (UUID assetId : newValues.keySet()) {
+            if (assetId != null) {
+                results.putIfAbsent(assetId, false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a statement once per item as a single JDBC batch inside a transaction
+     * @return whether the statement changed a row for each item, by asset id; all false if the batch failed
+     */
+    private <T> Map<UUID, Boolean> executeBatch(String sql, List<T> items, Function<T, UUID> idOf,
+                                                Binder<T> binder, String action) {
+        Map<UUID, Boolean> results = new LinkedHashMap<>();
+        for (T item : items) {
+            results.put(idOf.apply(item), false);
+        }
+        if (items.isEmpty()) {
+            return results;
+        }
+
+        try {
+            int[] counts = inTransaction(() -> {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    for (T item : items) {
+                        binder.bind(statement, item);
+                        statement.addBatch();
+                    }
+                    return statement.executeBatch();
+                }
+            });
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    results.put(idOf.apply(items.get(i)), true);
+                }
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error " + action + ": " + exception.getMessage());
+        }
+        return results;
+    }
+
+    /**
+     * Runs work in a transaction, or as part of the current one if a batch is already running
+     */
+    private <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            return work.run();
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            T result = work.run();
+            connection.commit();
+            return result;
+        }
+        catch (SQLException | RuntimeException exception) {
+            connection.rollback();
+            throw exception;
+        }
+        finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Binder<T> {
+        void bind(PreparedStatement statement, T item) throws SQLException;
+    }
+
+    private static void bindInsert(PreparedStatement statement, Asset asset) throws SQLException {
+        statement.setObject(1, asset.getId());
+        statement.setObject(2, asset.getUserId());
+        statement.setString(3, asset.getName());
+        statement.setString(4, asset.getType() != null ? asset.getType().name() : null);
+        statement.setBigDecimal(5, asset.getPurchasePrice());
+        statement.setObject(6, asset.getPurchaseDate() != null ? asset.getPurchaseDate().toInstant() : null);
+        statement.setBigDecimal(7, asset.getCurrentValue());
+        statement.setString(8, asset.getCurrency() != null ? asset.getCurrency().getCurrencyCode() : null);
+        statement.setObject(9, asset.getId());
+    }
+
+    @Override
+    public synchronized boolean removeAsset(UUID assetId) {
+        if (assetId == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+            statement.setObject(1, assetId);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error removing asset: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean updateAsset(UUID assetId, Asset newAsset) {
+        if (assetId == null || newAsset == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE)) {
+            statement.setObject(1, newAsset.getUserId());
+            statement.setString(2, newAsset.getName());
+            statement.setString(3, newAsset.getType() != null ? newAsset.getType().name() : null);
+            statement.setBigDecimal(4, newAsset.getPurchasePrice());
+            statement.setObject(5, newAsset.getPurchaseDate() != null ? newAsset.getPurchaseDate().toInstant() : null);
+            statement.setBigDecimal(6, newAsset.getCurrentValue());
+            statement.setString(7, newAsset.getCurrency() != null ? newAsset.getCurrency().getCurrencyCode() : null);
+            statement.setObject(8, assetId);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error updating asset: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
+        if (assetId == null || newValue == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_CURRENT_VALUE)) {
+            statement.setBigDecimal(1, newValue);
+            statement.setObject(2, assetId);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error updating asset value: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized Asset getAssetById(UUID assetId) {
+        if (assetId == null) {
+            return null;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_BY_ID)) {
+            statement.setObject(1, assetId);
+            try (ResultSet rows = statement.executeQuery()) {
+                return rows.next() ? readAsset(rows) : null;
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error reading asset: " + exception.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized List<Asset> getUserAssets(UUID userId) {
+        List<Asset> assets = new ArrayList<>();
+        if (userId == null) {
+            return assets;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_BY_USER)) {
+            statement.setObject(1, userId);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    assets.add(readAsset(rows));
+                }
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error reading assets: " + exception.getMessage());
+        }
+        return assets;
+    }
+
+    @Override
+    public synchronized List<Asset> getUserAssetsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        List<Asset> assets = new ArrayList<>();
+        if (userId == null) {
+            return assets;
+        }
+
+        String query = SELECT_BY_USER_PURCHASE_DATE
+                + (from != null ? " AND purchase_date >= ?" : "")
+                + (to != null ? " AND purchase_date < ?" : "")
+                + " ORDER BY purchase_date";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            int parameter = 1;
+            statement.setObject(parameter++, userId);
+            if (from != null) {
+                statement.setObject(parameter++, from);
+            }
+            if (to != null) {
+                statement.setObject(parameter, to);
+            }
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    assets.add(readAsset(rows));
+                }
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error reading assets: " + exception.getMessage());
+        }
+        return assets;
+    }
+
+    private static Asset readAsset(ResultSet rows) throws SQLException {
+        String type = rows.getString(4);
+        Instant purchaseDate = rows.getObject(6, Instant.class);
+        String currency = rows.getString(8);
+        return new Asset(
+                rows.getObject(1, UUID.class),
+                rows.getObject(2, UUID.class),
+                rows.getString(3),
+                type != null ? AssetType.valueOf(type) : null,
+                fromColumn(rows.getBigDecimal(5)),
+                purchaseDate != null ? Date.from(purchaseDate) : null,
+                fromColumn(rows.getBigDecimal(7)),
+                currency != null ? Currency.getInstance(currency) : null
+        );
+    }
+
+    /**
+     * Drops the padding zeros of the fixed-scale column, keeping at least two decimal places
+     */
+    private static BigDecimal fromColumn(BigDecimal value) {
+        if (value == null) {
+            return null;
+        }
+        BigDecimal stripped = value.stripTrailingZeros();
+        return stripped.scale() < 2 ? stripped.setScale(2, RoundingMode.UNNECESSARY) : stripped;
+    }
+
+    @Override
+    public synchronized BigDecimal calculateNetWorth(UUID userId) {
+        if (userId == null) {
+            return BigDecimal.ZERO;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SUM_BY_USER)) {
+            statement.setObject(1, userId);
+            try (ResultSet rows = statement.executeQuery()) {
+                BigDecimal total = rows.next() ? rows.getBigDecimal(1) : null;
+                return total != null ? fromColumn(total) : BigDecimal.ZERO;
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error calculating net worth: " + exception.getMessage());
+            return BigDecimal.ZERO;
+        }
+    }
+
+    @Override
+    public synchronized Map<Currency, BigDecimal> getUserTotalsByCurrency(UUID userId) {
+        Map<Currency, BigDecimal> totals = new HashMap<>();
+        if (userId == null) {
+            return totals;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SUM_BY_CURRENCY)) {
+            statement.setObject(1, userId);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    totals.put(Currency.getInstance(rows.getString(1)), fromColumn(rows.getBigDecimal(2)));
+                }
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error calculating totals by currency: " + exception.getMessage());
+        }
+        return totals;
+    }
+
+    /**
+     * Calculates the percentage of each asset type in a user's assets with a single grouped query.
+     * <p>
+     * This method directly sums values and does NOT perform currency conversion.
+     *
+     * @param userId The ID of the user.
+     * @return A map of asset Types to their percentages.
+     */
+    @Override
+    public synchronized Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
+        Map<AssetType, BigDecimal> distribution = new HashMap<>();
+        if (userId == null) {
+            return distribution;
+        }
+
+        Map<AssetType, BigDecimal> valueByType = new EnumMap<>(AssetType.class);
+        BigDecimal total = BigDecimal.ZERO;
+        try (PreparedStatement statement = connection.prepareStatement(SUM_BY_TYPE)) {
+            statement.setObject(1, userId);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    String type = rows.getString(1);
+                    BigDecimal value = rows.getBigDecimal(2);
+                    total = total.add(value);
+                    if (type != null) {
+                        valueByType.put(AssetType.valueOf(type), value);
+                    }
+                }
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error calculating asset distribution: " + exception.getMessage());
+            return distribution;
+        }
+
+        if (total.signum() == 0) {
+            return distribution;
+        }
+
+        for (Map.Entry<AssetType, BigDecimal> entry : valueByType.entrySet()) {
+            distribution.put(entry.getKey(), entry.getValue().divide(total, 4, RoundingMode.HALF_UP)
+                    .multiply(new BigDecimal("100")));
+        }
+        return distribution;
+    }
+}
@@ -0,0 +1,267 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of asset mutations kept next to the assets snapshot file.
+ * <p>
+ * Every record is framed as {@code [length][crc32][payload]} so a record torn by a crash
+ * is detected on replay and cut off instead of corrupting the data.
+ */
+class AssetJournal {
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_VALUE = 3;
+
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final File journalFile;
+    private final File rotatedFile;
+    private DataOutputStream out;
+    private int recordCount;
+    private boolean flushDeferred;
+
+    /**
+     * @param snapshotFile : the snapshot file this journal belongs to
+     */
+    AssetJournal(File snapshotFile) {
+        String path = snapshotFile.getPath();
+        int extension = path.lastIndexOf('.');
+        String base = extension > path.lastIndexOf(File.separatorChar) ? path.substring(0, extension) : path;
+        this.journalFile = new File(base + ".log");
+        this.rotatedFile = new File(base + ".log.1");
+    }
+
+    /**
+     * Replays the rotated journal (if a compaction was interrupted) and then the current journal into the given map
+     * @param assets : the assets loaded from the snapshot
+     */
+    void replay(Map<UUID, Asset> assets) {
+        if (rotatedFile.exists()) {
+            replay(rotatedFile, assets);
+        }
+        recordCount = replay(journalFile, assets);
+    }
+
+    /**
+     * Replays a single journal file, truncating it after the last intact record
+     * @return the number of records replayed
+     */
+    private int replay(File file, Map<UUID, Asset> assets) {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int records = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException endOfJournal) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                    in.readFully(payload);
+                }
+                catch (EOFException tornRecord) {
+                    break;
+                }
+                if (checksum != checksum(payload)) {
+                    break;
+                }
+
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), assets);
+                validLength += 8 + length;
+                records++;
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error replaying asset journal " + file.getPath() + ": " + exception.getMessage());
+        }
+
+        if (validLength < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+            catch (IOException exception) {
+                System.err.println("Error truncating asset journal " + file.getPath() + ": " + exception.getMessage());
+            }
+        }
+        return records;
+    }
+
+    private void apply(DataInputStream in, Map<UUID, Asset> assets) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_PUT -> {
+                Asset asset = BinaryCodec.readAsset(in);
+                assets.put(asset.getId(), asset);
+            }
+            case OP_REMOVE -> assets.remove(BinaryCodec.readUuid(in));
+            case OP_VALUE -> {
+                Asset asset = assets.get(BinaryCodec.readUuid(in));
+                BigDecimal value = BinaryCodec.readDecimal(in);
+                if (asset != null) {
+                    asset.setCurrentValue(value);
+                }
+            }
+            default -> throw new IOException("Unknown journal operation " + op);
+        }
+    }
+
+    /**
+     * Appends a record holding the full state of an asset
+     */
+    void appendPut(Asset asset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(OP_PUT);
+        BinaryCodec.writeAsset(payload, asset);
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Appends a record removing an asset
+     */
+    void appendRemove(UUID assetId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(OP_REMOVE);
+        BinaryCodec.writeUuid(payload, assetId);
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Appends a record changing only the current value of an asset
+     */
+    void appendCurrentValue(UUID assetId, BigDecimal value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(OP_VALUE);
+        BinaryCodec.writeUuid(payload, assetId);
+        BinaryCodec.writeDecimal(payload, value);
+        append(bytes.toByteArray());
+    }
+
+    private void append(byte[] payload) throws IOException {
+        if (out == null) {
+            File parent = journalFile.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+        }
+        out.writeInt(payload.length);
+        out.writeInt(checksum(payload));
+        out.write(payload);
+        if (!flushDeferred) {
+            out.flush();
+        }
+        recordCount++;
+    }
+
+    /**
+     * Keeps appended records buffered until {@link #flush()} instead of writing each one out as it is appended
+     * @param deferred : true to buffer records, false to write each record out again
+     */
+    void setFlushDeferred(boolean deferred) {
+        flushDeferred = deferred;
+    }
+
+    /**
+     * Writes out any buffered records
+     */
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return the number of records in the current journal
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Moves the current journal aside so new records go to a fresh file while a snapshot is being written.
+     * Must be called while no records are being appended.
+     */
+    void rotate() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (rotatedFile.exists() && journalFile.exists()) {
+            // a previous compaction never finished; keep both sets of records in order
+            try (OutputStream rotated = new FileOutputStream(rotatedFile, true)) {
+                Files.copy(journalFile.toPath(), rotated);
+            }
+            journalFile.delete();
+        }
+        else if (journalFile.exists() && !journalFile.renameTo(rotatedFile)) {
+            throw new IOException("Could not rotate " + journalFile.getPath());
+        }
+        recordCount = 0;
+    }
+
+    /**
+     * Deletes the rotated journal once a snapshot containing its records is safely on disk
+     */
+    void discardRotated() {
+        if (rotatedFile.exists() && !rotatedFile.delete()) {
+            System.err.println("Could not delete rotated asset journal " + rotatedFile.getPath());
+        }
+    }
+
+    /**
+     * @return true if there is a current or rotated journal file on disk
+     */
+    boolean exists() {
+        return journalFile.exists() || rotatedFile.exists();
+    }
+
+    /**
+     * Closes the current journal file, it is reopened by the next append
+     */
+    void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Closes and deletes both journal files, once their records are stored elsewhere
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(journalFile.toPath());
+        Files.deleteIfExists(rotatedFile.toPath());
+        recordCount = 0;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -1,8 +1,15 @@
 package fcai.prospera.repository;
 
 import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetRecord;
 import fcai.prospera.model.AssetType;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -41,6 +48,70 @@ public interface AssetRepository {
      */
     boolean updateCurrentValue(UUID assetId, BigDecimal newValue);
 
+    /**
+     * Runs several mutations as one batch under a single lock. Repositories that persist to a file or a database
+     * persist the batch once when it ends, instead of once per mutation; batches may be nested and only the outermost
+     * one persists. The default implementation holds this repository's monitor, which guards its synchronized
+     * methods, and leaves each mutation to persist itself.
+     * @param changes : the mutations to run, calling this repository's methods
+     */
+    default void batch(Runnable changes) {
+        synchronized (this) {
+            changes.run();
+        }
+    }
+
+    /**
+     * Adds several assets to database in one batch
+     * @param assets : assets to be added
+     * @return whether each asset was added, by asset id
+     */
+    default Map<UUID, Boolean> addAssets(Collection<Asset> assets) {
+        Map<UUID, Boolean> results = new LinkedHashMap<>();
+        batch(() -> {
+            for (Asset asset : assets) {
+                if (asset != null) {
+                    results.put(asset.getId(), addAsset(asset));
+                }
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Removes several assets from database in one batch
+     * @param assetIds : asset ids to be removed
+     * @return whether each asset was removed, by asset id
+     */
+    default Map<UUID, Boolean> removeAssets(Collection<UUID> assetIds) {
+        Map<UUID, Boolean> results = new LinkedHashMap<>();
+        batch(() -> {
+            for (UUID assetId : assetIds) {
+                if (assetId != null) {
+                    results.put(assetId, removeAsset(assetId));
+                }
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Updates the current values of several assets in one batch
+     * @param newValues : new value by asset id
+     * @return whether each asset was updated, by asset id
+     */
+    default Map<UUID, Boolean> updateCurrentValues(Map<UUID, BigDecimal> newValues) {
+        Map<UUID, Boolean> results = new LinkedHashMap<>();
+        batch(() -> {
+            for (Map.Entry<UUID, BigDecimal> entry : newValues.entrySet()) {
+                if (entry.getKey() != null) {
+                    results.put(entry.getKey(), updateCurrentValue(entry.getKey(), entry.getValue()));
+                }
+            }
+        });
+        return results;
+    }
+
     /**
      * Gets asset by id
      * @param assetId : asset id
@@ -55,6 +126,33 @@ public interface AssetRepository {
      */
     List<Asset> getUserAssets(UUID userId);
 
+    /**
+     * Gets immutable records of all assets for a user
+     * @param userId : user id
+     * @return list of asset records
+     */
+    default List<AssetRecord> getUserAssetRecords(UUID userId) {
+        return getUserAssets(userId).stream().map(Asset::toRecord).toList();
+    }
+
+    /**
+     * Gets a user's assets purchased in a date range, in purchase date order. Assets without a purchase date are not included.
+     * <p>
+     * This default scans all the user's assets; repositories with a purchase date index answer in O(log n + k).
+     * @param userId : user id
+     * @param from : the earliest purchase date, inclusive, or null for no lower bound
+     * @param to : the latest purchase date, exclusive, or null for no upper bound
+     * @return list of assets
+     */
+    default List<Asset> getUserAssetsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        return getUserAssets(userId).stream()
+                .filter(asset -> asset.getPurchaseDate() != null)
+                .filter(asset -> from == null || !asset.getPurchaseDate().toInstant().isBefore(from))
+                .filter(asset -> to == null || asset.getPurchaseDate().toInstant().isBefore(to))
+                .sorted(Comparator.comparing(Asset::getPurchaseDate))
+                .toList();
+    }
+
     /**
      * Calculates the net worth of a user
      * @param userId : user id
@@ -62,6 +160,21 @@ public interface AssetRepository {
      */
     BigDecimal calculateNetWorth(UUID userId);
 
+    /**
+     * Gets the sum of a user's asset values per currency, without conversion
+     * @param userId : user id
+     * @return map of currencies to total value
+     */
+    default Map<Currency, BigDecimal> getUserTotalsByCurrency(UUID userId) {
+        Map<Currency, BigDecimal> totals = new HashMap<>();
+        for (Asset asset : getUserAssets(userId)) {
+            if (asset.getCurrency() != null && asset.getCurrentValue() != null) {
+                totals.merge(asset.getCurrency(), asset.getCurrentValue(), BigDecimal::add);
+            }
+        }
+        return totals;
+    }
+
     /**
      * gets the asset distribution of a user
      * @param userId : user id
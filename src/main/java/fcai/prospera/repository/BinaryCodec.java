@@ -0,0 +1,281 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+import fcai.prospera.model.User;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * A compact, versioned binary format for assets and users.
+ * <p>
+ * A file starts with a header of {@code [magic][kind][version][count]} followed by the records.
+ * Each record starts with a bit mask of its non-null fields, decimals are written as a scale plus an
+ * unscaled int, long or byte array (whichever fits), dates as epoch millis, and asset types and currencies by name.
+ */
+final class BinaryCodec {
+    private static final int MAGIC = 0x50525350; // "PRSP"
+    private static final byte KIND_ASSETS = 1;
+    private static final byte KIND_USERS = 2;
+    private static final short VERSION = 1;
+
+    private static final byte DECIMAL_INT = 0;
+    private static final byte DECIMAL_LONG = 1;
+    private static final byte DECIMAL_BIG = 2;
+
+    private static final String LEGACY_EXTENSION = ".ser";
+
+    private BinaryCodec() { }
+
+    /**
+     * Checks whether a file was written by this codec, as opposed to Java serialization
+     * @param file : the file to check
+     * @return true if the file starts with the codec header
+     */
+    static boolean isBinary(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+        catch (IOException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the Java serialization file that earlier versions kept in place of the given file
+     * @param file : a binary data file
+     * @return the file with the same name but a {@code .ser} extension
+     */
+    static File legacyFile(File file) {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        String base = extension > 0 ? name.substring(0, extension) : name;
+        return new File(file.getParentFile(), base + LEGACY_EXTENSION);
+    }
+
+    /**
+     * Encodes assets into a complete file image
+     * @param assets : the assets to encode
+     * @return the encoded bytes
+     */
+    static byte[] encodeAssets(Collection<Asset> assets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + assets.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, KIND_ASSETS, assets.size());
+        for (Asset asset : assets) {
+            writeAsset(out, asset);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes assets from a stream positioned at the file header
+     * @param in : the input stream
+     * @return the assets keyed by id
+     */
+    static HashMap<UUID, Asset> decodeAssets(DataInputStream in) throws IOException {
+        int count = readHeader(in, KIND_ASSETS);
+        HashMap<UUID, Asset> assets = HashMap.newHashMap(count);
+        for (int i = 0; i < count; i++) {
+            Asset asset = readAsset(in);
+            assets.put(asset.getId(), asset);
+        }
+        return assets;
+    }
+
+    /**
+     * Encodes users into a complete file image
+     * @param users : the users to encode
+     * @return the encoded bytes
+     */
+    static byte[] encodeUsers(Collection<User> users) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + users.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, KIND_USERS, users.size());
+        for (User user : users) {
+            writeUser(out, user);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes users from a stream positioned at the file header
+     * @param in : the input stream
+     * @return the users keyed by id
+     */
+    static HashMap<UUID, User> decodeUsers(DataInputStream in) throws IOException {
+        int count = readHeader(in, KIND_USERS);
+        HashMap<UUID, User> users = HashMap.newHashMap(count);
+        for (int i = 0; i < count; i++) {
+            User user = readUser(in);
+            users.put(user.getId(), user);
+        }
+        return users;
+    }
+
+    private static void writeHeader(DataOutputStream out, byte kind, int count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(kind);
+        out.writeShort(VERSION);
+        out.writeInt(count);
+    }
+
+    private static int readHeader(DataInputStream in, byte kind) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Prospera data file");
+        }
+        byte actualKind = in.readByte();
+        if (actualKind != kind) {
+            throw new IOException("Unexpected data file kind " + actualKind);
+        }
+        short version = in.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported data file version " + version);
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Writes a single asset record
+     */
+    static void writeAsset(DataOutput out, Asset asset) throws IOException {
+        UUID userId = asset.getUserId();
+        String name = asset.getName();
+        AssetType type = asset.getType();
+        BigDecimal purchasePrice = asset.getPurchasePrice();
+        Date purchaseDate = asset.getPurchaseDate();
+        BigDecimal currentValue = asset.getCurrentValue();
+        Currency currency = asset.getCurrency();
+
+        int present = (userId != null ? 1 : 0)
+                | (name != null ? 1 << 1 : 0)
+                | (type != null ? 1 << 2 : 0)
+                | (purchasePrice != null ? 1 << 3 : 0)
+                | (purchaseDate != null ? 1 << 4 : 0)
+                | (currentValue != null ? 1 << 5 : 0)
+                | (currency != null ? 1 << 6 : 0);
+
+        out.writeByte(present);
+        writeUuid(out, asset.getId());
+        if (userId != null) writeUuid(out, userId);
+        if (name != null) out.writeUTF(name);
+        if (type != null) out.writeUTF(type.name());
+        if (purchasePrice != null) writeDecimal(out, purchasePrice);
+        if (purchaseDate != null) out.writeLong(purchaseDate.getTime());
+        if (currentValue != null) writeDecimal(out, currentValue);
+        if (currency != null) out.writeUTF(currency.getCurrencyCode());
+    }
+
+    /**
+     * Reads a single asset record written by {@link #writeAsset(DataOutput, Asset)}
+     */
+    static Asset readAsset(DataInput in) throws IOException {
+        int present = in.readUnsignedByte();
+        UUID id = readUuid(in);
+        UUID userId = (present & 1) != 0 ? readUuid(in) : null;
+        String name = (present & 1 << 1) != 0 ? in.readUTF() : null;
+        AssetType type = (present & 1 << 2) != 0 ? assetTypeOfName(in.readUTF()) : null;
+        BigDecimal purchasePrice = (present & 1 << 3) != 0 ? readDecimal(in) : null;
+        Date purchaseDate = (present & 1 << 4) != 0 ? new Date(in.readLong()) : null;
+        BigDecimal currentValue = (present & 1 << 5) != 0 ? readDecimal(in) : null;
+        Currency currency = (present & 1 << 6) != 0 ? Currency.getInstance(in.readUTF()) : null;
+        return new Asset(id, userId, name, type, purchasePrice, purchaseDate, currentValue, currency);
+    }
+
+    /**
+     * @param name : an asset type stored by name
+     * @return the asset type
+     */
+    static AssetType assetTypeOfName(String name) throws IOException {
+        try {
+            return AssetType.valueOf(name);
+        }
+        catch (IllegalArgumentException exception) {
+            throw new IOException("Unknown asset type " + name);
+        }
+    }
+
+    /**
+     * Writes a single user record
+     */
+    static void writeUser(DataOutput out, User user) throws IOException {
+        String username = user.getUsername();
+        String email = user.getEmail();
+        String passwordHash = user.getPasswordHash();
+
+        int present = (username != null ? 1 : 0)
+                | (email != null ? 1 << 1 : 0)
+                | (passwordHash != null ? 1 << 2 : 0);
+
+        out.writeByte(present);
+        writeUuid(out, user.getId());
+        if (username != null) out.writeUTF(username);
+        if (email != null) out.writeUTF(email);
+        if (passwordHash != null) out.writeUTF(passwordHash);
+    }
+
+    /**
+     * Reads a single user record
+     */
+    static User readUser(DataInput in) throws IOException {
+        int present = in.readUnsignedByte();
+        UUID id = readUuid(in);
+        String username = (present & 1) != 0 ? in.readUTF() : null;
+        String email = (present & 1 << 1) != 0 ? in.readUTF() : null;
+        String passwordHash = (present & 1 << 2) != 0 ? in.readUTF() : null;
+        return new User(id, username, email, passwordHash);
+    }
+
+    static void writeUuid(DataOutput out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readUuid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * Writes a decimal as its scale followed by the smallest encoding of its unscaled value
+     */
+    static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        BigInteger unscaled = value.unscaledValue();
+        out.writeInt(value.scale());
+        if (unscaled.bitLength() < Integer.SIZE) {
+            out.writeByte(DECIMAL_INT);
+            out.writeInt(unscaled.intValue());
+        }
+        else if (unscaled.bitLength() < Long.SIZE) {
+            out.writeByte(DECIMAL_LONG);
+            out.writeLong(unscaled.longValue());
+        }
+        else {
+            byte[] bytes = unscaled.toByteArray();
+            out.writeByte(DECIMAL_BIG);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static BigDecimal readDecimal(DataInput in) throws IOException {
+        int scale = in.readInt();
+        byte encoding = in.readByte();
+        switch (encoding) {
+            case DECIMAL_INT:
+                return BigDecimal.valueOf(in.readInt(), scale);
+            case DECIMAL_LONG:
+                return BigDecimal.valueOf(in.readLong(), scale);
+            case DECIMAL_BIG:
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                return new BigDecimal(new BigInteger(bytes), scale);
+            default:
+                throw new IOException("Unknown decimal encoding " + encoding);
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.AssetRecord;
+import fcai.prospera.model.AssetType;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A per-user history of what each user held, for point-in-time ("as of") net worth and distribution queries.
+ * <p>
+ * Each user has an append-only file {@code <directory>/<userId>.hist} of checkpoints, holding the type, currency and
+ * value of every asset the user held at that time, and changes, each replacing or removing the holding of a single
+ * asset. A checkpoint is written once a user has accumulated as many changes as they hold assets (and at least
+ * {@value #MIN_CHECKPOINT_INTERVAL}), so answering a query reads one checkpoint and a bounded number of changes
+ * however long the history is, while checkpoints take no more space than the changes between them.
+ * <p>
+ * Records are framed as {@code [length][crc32][payload]} like the asset journal, so a record torn by a crash is cut off.
+ * Next to each history file, {@code <userId>.idx} lists the time and offset of every checkpoint as
+ * {@code [second][offset]} pairs, so opening a user's history reads the index and replays only the records from the
+ * last checkpoint on. A missing or stale index is rebuilt by reading the record headers alone.
+ */
+public class HoldingsHistoryStore {
+    private static final String HISTORY_EXTENSION = ".hist";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final byte KIND_CHECKPOINT = 1;
+    private static final byte KIND_CHANGE = 2;
+    private static final int MIN_CHECKPOINT_INTERVAL = 256;
+    private static final int MAX_RECORD_LENGTH = 1 << 26;
+
+    /**
+     * What an asset contributes to its user's totals
+     */
+    private record Holding(AssetType type, Currency currency, BigDecimal value) { }
+
+    /**
+     * The checkpoints of a user's history and the user's current holdings
+     */
+    private static final class UserHistory {
+        private final File file;
+        private final File index;
+        private final List<long[]> checkpoints = new ArrayList<>();
+        private final Map<UUID, Holding> current = new HashMap<>();
+        private long lastSecond = Long.MIN_VALUE;
+        private int changesSinceCheckpoint;
+        private DataOutputStream out;
+
+        UserHistory(File file, File index) {
+            this.file = file;
+            this.index = index;
+        }
+    }
+
+    private final File directory;
+    private final HashMap<UUID, UserHistory> histories = new HashMap<>();
+
+    /**
+     * @param directoryPath : the directory holding one history file per user
+     */
+    public HoldingsHistoryStore(String directoryPath) {
+        this.directory = new File(directoryPath);
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.err.println("Could not create holdings history directory " + directory.getPath());
+        }
+    }
+
+    /**
+     * @param userId : user id
+     * @return true if the user's history has started, i.e. it has a checkpoint
+     */
+    public synchronized boolean isTracked(UUID userId) {
+        return userId != null && !history(userId).checkpoints.isEmpty();
+    }
+
+    /**
+     * Records everything a user holds at a point in time; used to start a user's history
+     * @param userId : user id
+     * @param at : the time the user held the assets
+     * @param assets : the user's assets
+     */
+    public synchronized void checkpoint(UUID userId, Instant at, Collection<AssetRecord> assets) {
+        if (userId == null || at == null || assets == null) {
+            return;
+        }
+
+        UserHistory history = history(userId);
+        history.current.clear();
+        for (AssetRecord asset : assets) {
+            Holding holding = holdingOf(asset);
+            if (holding != null) {
+                history.current.put(asset.id(), holding);
+            }
+        }
+        writeCheckpoint(userId, history, at.getEpochSecond());
+    }
+
+    /**
+     * Records a change to an asset. An asset that moved to another user is removed from the old user's history;
+     * changes for users whose history has not started are ignored.
+     * @param at : the time of the change
+     * @param before : the asset before the change, or null if it was added
+     * @param after : the asset after the change, or null if it was removed
+     */
+    public synchronized void recordChange(Instant at, AssetRecord before, AssetRecord after) {
+        if (at == null || (before == null && after == null)) {
+            return;
+        }
+
+        if (before != null && before.userId() != null && (after == null || !before.userId().equals(after.userId()))) {
+            writeChange(before.userId(), at.getEpochSecond(), before.id(), null);
+        }
+        if (after != null && after.userId() != null) {
+            writeChange(after.userId(), at.getEpochSecond(), after.id(), holdingOf(after));
+        }
+    }
+
+    /**
+     * Gets the sum of a user's asset values per currency at a point in time, without conversion
+     * @param userId : user id
+     * @param at : the point in time
+     * @return map of currencies to total value, empty if the user's history starts later
+     */
+    public synchronized Map<Currency, BigDecimal> getTotalsByCurrencyAt(UUID userId, Instant at) {
+        Map<Currency, BigDecimal> totals = new HashMap<>();
+        for (Holding holding : holdingsAt(userId, at).values()) {
+            if (holding.currency() != null) {
+                totals.merge(holding.currency(), holding.value(), BigDecimal::add);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Gets the percentage of a user's total held in each asset type at a point in time, without conversion
+     * @param userId : user id
+     * @param at : the point in time
+     * @return map of asset types to percentages, empty if the user's history starts later
+     */
+    public synchronized Map<AssetType, BigDecimal> getDistributionAt(UUID userId, Instant at) {
+        BigDecimal total = BigDecimal.ZERO;
+        Map<AssetType, BigDecimal> byType = new EnumMap<>(AssetType.class);
+        for (Holding holding : holdingsAt(userId, at).values()) {
+            total = total.add(holding.value());
+            if (holding.type() != null) {
+                byType.merge(holding.type(), holding.value(), BigDecimal::add);
+            }
+        }
+
+        Map<AssetType, BigDecimal> distribution = new HashMap<>();
+        if (total.signum() == 0) {
+            return distribution;
+        }
+        for (Map.Entry<AssetType, BigDecimal> entry : byType.entrySet()) {
+            distribution.put(entry.getKey(), entry.getValue().divide(total, 4, RoundingMode.HALF_UP).multiply(new BigDecimal("100")));
+        }
+        return distribution;
+    }
+
+    /**
+     * Closes a user's history file and drops their holdings from memory; they are read again when next needed
+     * @param userId : user id
+     */
+    public synchronized void evict(UUID userId) {
+        UserHistory history = histories.remove(userId);
+        if (history != null) {
+            closeHistory(history);
+        }
+    }
+
+    /**
+     * Closes the open history files
+     */
+    public synchronized void close() {
+        for (UserHistory history : histories.values()) {
+            closeHistory(history);
+        }
+        histories.clear();
+    }
+
+    private static void closeHistory(UserHistory history) {
+        if (history.out != null) {
+            try {
+                history.out.close();
+            }
+            catch (IOException exception) {
+                System.err.println("Error closing holdings history " + history.file.getPath() + ": " + exception.getMessage());
+            }
+        }
+    }
+
+    private static Holding holdingOf(AssetRecord asset) {
+        return asset.currentValue() != null ? new Holding(asset.type(), asset.currency(), asset.currentValue()) : null;
+    }
+
+    /**
+     * Reads the holdings of a user at a point in time from the last checkpoint before it and the changes after that
+     */
+    private Map<UUID, Holding> holdingsAt(UUID userId, Instant at) {
+        Map<UUID, Holding> holdings = new HashMap<>();
+        if (userId == null || at == null) {
+            return holdings;
+        }
+
+        UserHistory history = history(userId);
+        long second = at.getEpochSecond();
+        int checkpoint = lastCheckpointAtOrBefore(history.checkpoints, second);
+        if (checkpoint < 0) {
+            return holdings;
+        }
+
+        try {
+            if (history.out != null) {
+                history.out.flush();
+            }
+            try (FileInputStream file = new FileInputStream(history.file)) {
+                file.getChannel().position(history.checkpoints.get(checkpoint)[1]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+                byte[] payload;
+                while ((payload = readRecord(in)) != null) {
+                    if (!apply(new DataInputStream(new ByteArrayInputStream(payload)), holdings, second)) {
+                        break;
+                    }
+                }
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error reading holdings history " + history.file.getPath() + ": " + exception.getMessage());
+        }
+        return holdings;
+    }
+
+    /**
+     * @return the index of the last checkpoint taken at or before the given second, or -1
+     */
+    private static int lastCheckpointAtOrBefore(List<long[]> checkpoints, long second) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (checkpoints.get(middle)[0] <= second) {
+                found = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Applies a record to a set of holdings
+     * @return false if the record is later than the given second
+     */
+    private static boolean apply(DataInputStream in, Map<UUID, Holding> holdings, long untilSecond) throws IOException {
+        byte kind = in.readByte();
+        long second = in.readLong();
+        if (second > untilSecond) {
+            return false;
+        }
+
+        switch (kind) {
+            case KIND_CHECKPOINT -> {
+                holdings.clear();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    holdings.put(BinaryCodec.readUuid(in), readHolding(in));
+                }
+            }
+            case KIND_CHANGE -> {
+                UUID assetId = BinaryCodec.readUuid(in);
+                if (in.readBoolean()) {
+                    holdings.put(assetId, readHolding(in));
+                }
+                else {
+                    holdings.remove(assetId);
+                }
+            }
+            default -> throw new IOException("Unknown holdings history record " + kind);
+        }
+        return true;
+    }
+
+    /**
+     * Gets a user's history, the first time reading its checkpoint index and replaying its current holdings from
+     * the last checkpoint
+     */
+    private UserHistory history(UUID userId) {
+        UserHistory history = histories.get(userId);
+        if (history != null) {
+            return history;
+        }
+
+        history = new UserHistory(new File(directory, userId + HISTORY_EXTENSION), new File(directory, userId + INDEX_EXTENSION));
+        histories.put(userId, history);
+        if (!history.file.exists()) {
+            return history;
+        }
+
+        try {
+            boolean indexed = readIndex(history);
+            if (!indexed) {
+                scanCheckpoints(history);
+            }
+            while (!replayFromLastCheckpoint(history)) {
+                // the index points past the end of the history or at a damaged record
+                if (indexed) {
+                    scanCheckpoints(history);
+                    indexed = false;
+                }
+                else {
+                    history.checkpoints.remove(history.checkpoints.size() - 1);
+                }
+            }
+            if (!indexed) {
+                writeIndex(history);
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error reading holdings history " + history.file.getPath() + ": " + exception.getMessage());
+        }
+        return history;
+    }
+
+    /**
+     * Loads the checkpoints listed in a user's index
+     * @return false if the user has no index
+     */
+    private static boolean readIndex(UserHistory history) throws IOException {
+        if (!history.index.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(history.index)))) {
+            long entries = history.index.length() / INDEX_ENTRY_SIZE;
+            for (long i = 0; i < entries; i++) {
+                history.checkpoints.add(new long[] {in.readLong(), in.readLong()});
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the checkpoint list from the record headers of a user's history, skipping the record bodies
+     */
+    private static void scanCheckpoints(UserHistory history) throws IOException {
+        history.checkpoints.clear();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(history.file)))) {
+            while (true) {
+                int length = in.readInt();
+                in.readInt();
+                if (length < 9 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte kind = in.readByte();
+                long second = in.readLong();
+                in.skipNBytes(length - 9);
+                if (kind == KIND_CHECKPOINT) {
+                    history.checkpoints.add(new long[] {second, offset});
+                }
+                offset += 8 + length;
+            }
+        }
+        catch (EOFException endOfHistory) {
+            // a torn last record is cut off by the replay
+        }
+    }
+
+    /**
+     * Replays the records from the last checkpoint on into the user's current holdings, adding checkpoints written
+     * after the index was last updated and cutting off a torn last record
+     * @return false if the last checkpoint is not an intact checkpoint record
+     */
+    private static boolean replayFromLastCheckpoint(UserHistory history) throws IOException {
+        long start = history.checkpoints.isEmpty() ? 0 : history.checkpoints.get(history.checkpoints.size() - 1)[1];
+        if (start >= history.file.length() && start > 0) {
+            return false;
+        }
+
+        history.current.clear();
+        history.changesSinceCheckpoint = 0;
+        history.lastSecond = Long.MIN_VALUE;
+        long validLength = start;
+        try (FileInputStream file = new FileInputStream(history.file)) {
+            file.getChannel().position(start);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                if (payload[0] == KIND_CHECKPOINT) {
+                    if (validLength > start || history.checkpoints.isEmpty()) {
+                        history.checkpoints.add(new long[] {readSecond(payload), validLength});
+                        appendIndex(history, readSecond(payload), validLength);
+                    }
+                    history.changesSinceCheckpoint = 0;
+                }
+                else if (validLength == start && start > 0) {
+                    return false;
+                }
+                else {
+                    history.changesSinceCheckpoint++;
+                }
+                history.lastSecond = readSecond(payload);
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), history.current, Long.MAX_VALUE);
+                validLength += 8 + payload.length;
+            }
+        }
+        if (validLength == start && start > 0) {
+            return false;
+        }
+
+        if (validLength < history.file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(history.file, "rw")) {
+                raf.setLength(validLength);
+            }
+            catch (IOException exception) {
+                System.err.println("Error truncating holdings history " + history.file.getPath() + ": " + exception.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites a user's index from the checkpoint list
+     */
+    private static void writeIndex(UserHistory history) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(history.checkpoints.size() * INDEX_ENTRY_SIZE);
+        for (long[] checkpoint : history.checkpoints) {
+            entries.putLong(checkpoint[0]).putLong(checkpoint[1]);
+        }
+        WriteBehindWriter.writeAtomically(history.index.toPath(), entries.array());
+    }
+
+    /**
+     * Adds a checkpoint to a user's index
+     */
+    private static void appendIndex(UserHistory history, long second, long offset) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(history.index, true))) {
+            out.writeLong(second);
+            out.writeLong(offset);
+        }
+    }
+
+    private static long readSecond(byte[] payload) {
+        long second = 0;
+        for (int i = 1; i <= 8; i++) {
+            second = (second << 8) | (payload[i] & 0xFF);
+        }
+        return second;
+    }
+
+    private void writeCheckpoint(UUID userId, UserHistory history, long second) {
+        second = Math.max(second, history.lastSecond);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + history.current.size() * 48);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeByte(KIND_CHECKPOINT);
+            payload.writeLong(second);
+            payload.writeInt(history.current.size());
+            for (Map.Entry<UUID, Holding> entry : history.current.entrySet()) {
+                BinaryCodec.writeUuid(payload, entry.getKey());
+                writeHolding(payload, entry.getValue());
+            }
+            long offset = append(history, bytes.toByteArray());
+            history.checkpoints.add(new long[] {second, offset});
+            appendIndex(history, second, offset);
+            history.changesSinceCheckpoint = 0;
+            history.lastSecond = second;
+        }
+        catch (IOException exception) {
+            System.err.println("Error writing holdings history of user " + userId + ": " + exception.getMessage());
+        }
+    }
+
+    private void writeChange(UUID userId, long second, UUID assetId, Holding holding) {
+        UserHistory history = history(userId);
+        if (history.checkpoints.isEmpty()) {
+            return;
+        }
+
+        second = Math.max(second, history.lastSecond);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeByte(KIND_CHANGE);
+            payload.writeLong(second);
+            BinaryCodec.writeUuid(payload, assetId);
+            payload.writeBoolean(holding != null);
+            if (holding != null) {
+                writeHolding(payload, holding);
+            }
+            append(history, bytes.toByteArray());
+            history.lastSecond = second;
+        }
+        catch (IOException exception) {
+            System.err.println("Error writing holdings history of user " + userId + ": " + exception.getMessage());
+            return;
+        }
+
+        if (holding != null) {
+            history.current.put(assetId, holding);
+        }
+        else {
+            history.current.remove(assetId);
+        }
+        if (++history.changesSinceCheckpoint >= Math.max(MIN_CHECKPOINT_INTERVAL, history.current.size())) {
+            writeCheckpoint(userId, history, second);
+        }
+    }
+
+    /**
+     * Appends a framed record to a user's history file
+     * @return the offset of the record in the file
+     */
+    private static long append(UserHistory history, byte[] payload) throws IOException {
+        if (history.out == null) {
+            history.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(history.file, true)));
+        }
+        history.out.flush();
+        long offset = history.file.length();
+        history.out.writeInt(payload.length);
+        history.out.writeInt(checksum(payload));
+        history.out.write(payload);
+        history.out.flush();
+        return offset;
+    }
+
+    /**
+     * @return the payload of the next record, or null at the end of the file or at a torn record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            int checksum = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return checksum == checksum(payload) ? payload : null;
+        }
+        catch (EOFException endOfHistory) {
+            return null;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void writeHolding(DataOutput out, Holding holding) throws IOException {
+        out.writeUTF(holding.type() != null ? holding.type().name() : "");
+        out.writeUTF(holding.currency() != null ? holding.currency().getCurrencyCode() : "");
+        BinaryCodec.writeDecimal(out, holding.value());
+    }
+
+    private static Holding readHolding(DataInput in) throws IOException {
+        String type = in.readUTF();
+        String currency = in.readUTF();
+        return new Holding(type.isEmpty() ? null : BinaryCodec.assetTypeOfName(type), currency.isEmpty() ? null : Currency.getInstance(currency), BinaryCodec.readDecimal(in));
+    }
+}
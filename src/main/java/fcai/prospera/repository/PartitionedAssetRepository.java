@@ -0,0 +1,351 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Implements the AssetRepository interface with one assets file per user, {@code <directory>/<userId>.dat}.
+ * <p>
+ * Nothing is read at startup; a user's partition is loaded the first time one of their assets is asked for
+ * (or explicitly through {@link #load(UUID)} after login) and dropped again with {@link #evict(UUID)} after logout.
+ * Lookups by asset id only search the partitions that are currently loaded, which in the application always
+ * include the owner of any asset the user can see.
+ * <p>
+ * Reads of a user's assets load a missing partition without holding the repository lock, so partitions of
+ * different users are read from disk in parallel; only the lookup in the loaded partition runs under the lock.
+ */
+public class PartitionedAssetRepository implements AssetRepository {
+
+    private static final String PARTITIONS_DIRECTORY = "data/assets";
+    private static final String PARTITION_EXTENSION = ".dat";
+    private static final String MIGRATED_EXTENSION = ".migrated";
+
+    private final File directory;
+    private final Duration writeBehindWindow;
+    private final HashMap<UUID, AssetFileRepository> partitions = new HashMap<>();
+    private final HashMap<UUID, UUID> ownerByAssetId = new HashMap<>();
+    private int batchDepth;
+
+    public PartitionedAssetRepository() {
+        this(PARTITIONS_DIRECTORY, null, null);
+    }
+
+    /**
+     * @param directoryPath : the directory holding one assets file per user
+     * @param singleFilePath : an assets file in the single-file layout to split into partitions if present, or null
+     * @param writeBehindWindow : if not null, partitions are written in write-behind mode with this window
+     */
+    public PartitionedAssetRepository(String directoryPath, String singleFilePath, Duration writeBehindWindow) {
+        this.directory = new File(directoryPath);
+        this.writeBehindWindow = writeBehindWindow;
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.err.println("Could not create asset partitions directory " + directory.getPath());
+        }
+        if (singleFilePath != null) {
+            migrate(new File(singleFilePath));
+        }
+    }
+
+    /**
+     * Splits an assets file of the single-file layout (including its journal and legacy {@code .ser} file) into
+     * per-user partitions, then renames the old files out of the way. Partitions are overwritten, so a migration
+     * interrupted before the old files are renamed simply runs again on the next startup.
+     */
+    private void migrate(File singleFile) {
+        File legacyFile = BinaryCodec.legacyFile(singleFile);
+        AssetJournal journal = new AssetJournal(singleFile);
+        if (!singleFile.exists() && !legacyFile.exists() && !journal.exists()) {
+            return;
+        }
+
+        AssetFileRepository source = new AssetFileRepository(singleFile.getPath(), true);
+        HashMap<UUID, List<Asset>> assetsByUser = new HashMap<>();
+        for (Asset asset : source.getAllAssets()) {
+            if (asset.getUserId() == null) {
+                System.err.println("Skipping asset " + asset.getId() + " without a user while migrating " + singleFile.getPath());
+                continue;
+            }
+            assetsByUser.computeIfAbsent(asset.getUserId(), userId -> new ArrayList<>()).add(asset);
+        }
+        source.close();
+
+        try {
+            for (Map.Entry<UUID, List<Asset>> entry : assetsByUser.entrySet()) {
+                WriteBehindWriter.writeAtomically(partitionFile(entry.getKey()).toPath(), BinaryCodec.encodeAssets(entry.getValue()));
+            }
+            retire(singleFile);
+            retire(legacyFile);
+            journal.delete();
+        }
+        catch (IOException exception) {
+            System.err.println("Error migrating assets from " + singleFile.getPath() + ": " + exception.getMessage());
+        }
+    }
+
+    private static void retire(File file) throws IOException {
+        if (file.exists()) {
+            Files.move(file.toPath(), new File(file.getPath() + MIGRATED_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private File partitionFile(UUID userId) {
+        return new File(directory, userId + PARTITION_EXTENSION);
+    }
+
+    /**
+     * Loads a user's partition if it is not loaded yet
+     * @param userId : user id
+     */
+    public void load(UUID userId) {
+        if (userId != null) {
+            loadUnlocked(userId);
+        }
+    }
+
+    /**
+     * Writes any pending changes of a user's partition and drops it from memory
+     * @param userId : user id
+     */
+    public void evict(UUID userId) {
+        AssetFileRepository partition;
+        synchronized (this) {
+            partition = partitions.remove(userId);
+            if (partition == null) {
+                return;
+            }
+            for (Asset asset : partition.getUserAssets(userId)) {
+                ownerByAssetId.remove(asset.getId());
+            }
+            if (batchDepth > 0) {
+                partition.endBatch();
+            }
+        }
+        partition.close();
+    }
+
+    /**
+     * Writes the pending changes of every loaded partition and drops them from memory
+     */
+    public void evictAll() {
+        List<UUID> userIds;
+        synchronized (this) {
+            userIds = new ArrayList<>(partitions.keySet());
+        }
+        for (UUID userId : userIds) {
+            evict(userId);
+        }
+    }
+
+    /**
+     * @return the ids of the users whose partitions are loaded
+     */
+    public synchronized Set<UUID> getLoadedUserIds() {
+        return new HashSet<>(partitions.keySet());
+    }
+
+    /**
+     * Gets a user's partition, loading it if needed; called while holding the repository lock
+     */
+    private AssetFileRepository partition(UUID userId) {
+        AssetFileRepository partition = partitions.get(userId);
+        if (partition == null) {
+            partition = new AssetFileRepository(partitionFile(userId).getPath(), false, writeBehindWindow);
+            install(userId, partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Loads a user's partition if it is not loaded yet, reading the file without holding the repository lock.
+     * If another thread loads the same partition meanwhile, its copy is kept and this one is dropped.
+     */
+    private void loadUnlocked(UUID userId) {
+        synchronized (this) {
+            if (partitions.containsKey(userId)) {
+                return;
+            }
+        }
+        AssetFileRepository loaded = new AssetFileRepository(partitionFile(userId).getPath(), false, writeBehindWindow);
+        boolean installed;
+        synchronized (this) {
+            installed = !partitions.containsKey(userId);
+            if (installed) {
+                install(userId, loaded);
+            }
+        }
+        if (!installed) {
+            loaded.close();
+        }
+    }
+
+    private void install(UUID userId, AssetFileRepository partition) {
+        partitions.put(userId, partition);
+        if (batchDepth > 0) {
+            partition.beginBatch();
+        }
+        for (Asset asset : partition.getUserAssets(userId)) {
+            ownerByAssetId.put(asset.getId(), userId);
+        }
+    }
+
+    /**
+     * @return the loaded partition holding the asset, or null
+     */
+    private AssetFileRepository owningPartition(UUID assetId) {
+        UUID owner = assetId != null ? ownerByAssetId.get(assetId) : null;
+        return owner != null ? partitions.get(owner) : null;
+    }
+
+    /**
+     * Runs several mutations as one batch across partitions: every partition touched is persisted once at the end
+     * @param changes : the mutations to run, calling this repository's methods
+     */
+    @Override
+    public synchronized void batch(Runnable changes) {
+        if (batchDepth++ == 0) {
+            for (AssetFileRepository partition : partitions.values()) {
+                partition.beginBatch();
+            }
+        }
+        try {
+            changes.run();
+        }
+        finally {
+            if (--batchDepth == 0) {
+                for (AssetFileRepository partition : partitions.values()) {
+                    partition.endBatch();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean addAsset(Asset asset) {
+        if (asset == null || asset.getUserId() == null || ownerByAssetId.containsKey(asset.getId())) {
+            return false;
+        }
+
+        if (!partition(asset.getUserId()).addAsset(asset)) {
+            return false;
+        }
+        ownerByAssetId.put(asset.getId(), asset.getUserId());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAsset(UUID assetId) {
+        AssetFileRepository partition = owningPartition(assetId);
+        if (partition == null || !partition.removeAsset(assetId)) {
+            return false;
+        }
+
+        ownerByAssetId.remove(assetId);
+        return true;
+    }
+
+    /**
+     * Updates an asset, moving it to another partition if its user changed. A move adds the asset to the new
+     * owner's partition before removing it from the old one, in one batch, so a failed add leaves it where it was.
+     */
+    @Override
+    public synchronized boolean updateAsset(UUID assetId, Asset newAsset) {
+        AssetFileRepository partition = owningPartition(assetId);
+        if (partition == null || newAsset == null || newAsset.getUserId() == null) {
+            return false;
+        }
+
+        Asset stored = assetId.equals(newAsset.getId()) ? newAsset
+                : new Asset(assetId, newAsset.getUserId(), newAsset.getName(), newAsset.getType(), newAsset.getPurchasePrice(),
+                        newAsset.getPurchaseDate(), newAsset.getCurrentValue(), newAsset.getCurrency());
+        UUID owner = ownerByAssetId.get(assetId);
+        if (owner.equals(stored.getUserId())) {
+            return partition.updateAsset(assetId, stored);
+        }
+
+        boolean[] moved = new boolean[1];
+        batch(() -> {
+            if (partition(stored.getUserId()).addAsset(stored)) {
+                partition.removeAsset(assetId);
+                ownerByAssetId.put(assetId, stored.getUserId());
+                moved[0] = true;
+            }
+        });
+        return moved[0];
+    }
+
+    @Override
+    public synchronized boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
+        AssetFileRepository partition = owningPartition(assetId);
+        return partition != null && partition.updateCurrentValue(assetId, newValue);
+    }
+
+    @Override
+    public synchronized Asset getAssetById(UUID assetId) {
+        AssetFileRepository partition = owningPartition(assetId);
+        return partition != null ? partition.getAssetById(assetId) : null;
+    }
+
+    @Override
+    public List<Asset> getUserAssets(UUID userId) {
+        if (userId == null) {
+            return List.of();
+        }
+        loadUnlocked(userId);
+        synchronized (this) {
+            return partition(userId).getUserAssets(userId);
+        }
+    }
+
+    @Override
+    public List<Asset> getUserAssetsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        if (userId == null) {
+            return List.of();
+        }
+        loadUnlocked(userId);
+        synchronized (this) {
+            return partition(userId).getUserAssetsPurchasedBetween(userId, from, to);
+        }
+    }
+
+    @Override
+    public BigDecimal calculateNetWorth(UUID userId) {
+        if (userId == null) {
+            return BigDecimal.ZERO;
+        }
+        loadUnlocked(userId);
+        synchronized (this) {
+            return partition(userId).calculateNetWorth(userId);
+        }
+    }
+
+    @Override
+    public Map<Currency, BigDecimal> getUserTotalsByCurrency(UUID userId) {
+        if (userId == null) {
+            return new HashMap<>();
+        }
+        loadUnlocked(userId);
+        synchronized (this) {
+            return partition(userId).getUserTotalsByCurrency(userId);
+        }
+    }
+
+    @Override
+    public Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
+        if (userId == null) {
+            return new HashMap<>();
+        }
+        loadUnlocked(userId);
+        synchronized (this) {
+            return partition(userId).getUserAssetDistribution(userId);
+        }
+    }
+}
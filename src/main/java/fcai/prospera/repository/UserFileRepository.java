@@ -2,115 +2,216 @@ package fcai.prospera.repository;
 
 import fcai.prospera.model.User;
 import java.io.*;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of UserRepository to handle file database communication for user data
  */
-public class UserFileRepository implements UserRepository {
+public final class UserFileRepository implements UserRepository {
 
-    private final String USERS_FILE_PATH = "data/users.ser";
+    private final String USERS_FILE_PATH = "data/users.dat";
     private final File usersStorage;
+    private final WriteBehindWriter writer;
     private HashMap<UUID, User> users;
+    private final HashMap<String, User> usersByUsername = new HashMap<>();
+    private final HashMap<String, User> usersByEmail = new HashMap<>();
 
     public UserFileRepository() {
+        this(null);
+    }
+
+    /**
+     * @param writeBehindWindow : if not null, changes only mark the repository dirty and the users file is rewritten
+     *                          by a background thread once per window
+     */
+    public UserFileRepository(Duration writeBehindWindow) {
         usersStorage = new File(USERS_FILE_PATH);
         users = new HashMap<>();
-        loadUsers();
+        boolean migrated = loadUsers();
+        rebuildIndexes();
+        writer = writeBehindWindow != null
+                ? new WriteBehindWriter(usersStorage.toPath(), this, () -> BinaryCodec.encodeUsers(users.values()),
+                        writeBehindWindow, "user-write-behind")
+                : null;
+        if (migrated) {
+            saveUsers();
+        }
     }
 
     /**
-     * Loads users from file
+     * Rebuilds the username and email indexes in a single pass over the users
      */
-    private void loadUsers() {
-        if (!usersStorage.exists() || usersStorage.length() == 0) {
-            return;
+    private void rebuildIndexes() {
+        usersByUsername.clear();
+        usersByEmail.clear();
+        for (User user : users.values()) {
+            index(user);
+        }
+    }
+
+    private void index(User user) {
+        if (user.getUsername() != null) {
+            usersByUsername.put(user.getUsername(), user);
+        }
+        if (user.getEmail() != null) {
+            usersByEmail.put(user.getEmail(), user);
+        }
+    }
+
+    private void unindex(User user) {
+        if (user.getUsername() != null) {
+            usersByUsername.remove(user.getUsername(), user);
+        }
+        if (user.getEmail() != null) {
+            usersByEmail.remove(user.getEmail(), user);
+        }
+    }
+
+    /**
+     * Normalizes a username or email the same way {@link User} stores it
+     */
+    private static String normalize(String key) {
+        return key.toLowerCase().trim();
+    }
+
+    /**
+     * Loads users from file, falling back to the Java serialization file of earlier versions
+     * @return true if the users were read from a Java serialization file and should be rewritten
+     */
+    private boolean loadUsers() {
+        File source = usersStorage;
+        if (!source.exists() || source.length() == 0) {
+            source = BinaryCodec.legacyFile(usersStorage);
+            if (!source.exists() || source.length() == 0) {
+                return false;
+            }
         }
 
-        try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(usersStorage))) {
+        if (BinaryCodec.isBinary(source)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+                users = BinaryCodec.decodeUsers(in);
+            }
+            catch (IOException exception) {
+                System.err.println("Error loading users from " + source.getPath() + ": " + exception.getMessage());
+            }
+            return false;
+        }
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(source)))) {
             users = (HashMap<UUID, User>) objectIn.readObject();
+            return true;
         }
         catch (IOException | ClassNotFoundException exception) {
-            System.err.println("Error loading users from " + USERS_FILE_PATH + ": " + exception.getMessage());
+            System.err.println("Error loading users from " + source.getPath() + ": " + exception.getMessage());
+            return false;
         }
     }
 
     /**
-     * Saves users to file
+     * Saves users to file, or marks them dirty for the write-behind writer
      */
     private void saveUsers() {
-        try (ObjectOutputStream objectOut = new ObjectOutputStream(new FileOutputStream(usersStorage))) {
-            objectOut.writeObject(users);
+        if (writer != null) {
+            writer.markDirty();
+            return;
+        }
+
+        try {
+            WriteBehindWriter.writeAtomically(usersStorage.toPath(), BinaryCodec.encodeUsers(users.values()));
         }
         catch (IOException exception) {
             System.err.println("Error saving users in " + USERS_FILE_PATH + ": " + exception.getMessage());
         }
     }
 
+    /**
+     * Starts writing pending write-behind changes now; does nothing when every change is saved synchronously
+     */
+    public void flush() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Flushes and waits until every change made so far is on disk
+     * @param timeout : the maximum time to wait
+     * @param unit : the unit of the timeout
+     * @return true if all changes are durable, false if the timeout elapsed or the wait was interrupted
+     */
+    public boolean awaitDurable(long timeout, TimeUnit unit) {
+        if (writer == null) {
+            return true;
+        }
+
+        try {
+            return writer.awaitDurable(timeout, unit);
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     @Override
-    public boolean add(User user) {
+    public synchronized boolean add(User user) {
         if (user == null || users.containsKey(user.getId())) {
             return false;
         }
 
         users.put(user.getId(), user);
+        index(user);
         saveUsers();
         return true;
     }
 
     @Override
-    public User getUserById(UUID userId) {
+    public synchronized User getUserById(UUID userId) {
         return (userId != null ? users.get(userId) : null);
     }
 
     @Override
-    public boolean removeUser(UUID userId) {
+    public synchronized List<User> getAllUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public synchronized boolean removeUser(UUID userId) {
         User removedUser = users.remove(userId);
         if (removedUser == null) {
             return false;
         }
 
+        unindex(removedUser);
         saveUsers();
         return true;
     }
 
     @Override
-    public User getUserByEmail(String email) {
+    public synchronized User getUserByEmail(String email) {
         if (email == null) {
             return null;
         }
 
-        String cleanEmail = email.toLowerCase().trim();
-        for (User user : users.values()) {
-            String currentEmail = user.getEmail();
-            if (currentEmail != null && currentEmail.equals(cleanEmail)) {
-                return user;
-            }
-        }
-
-        return null;
+        return usersByEmail.get(normalize(email));
     }
 
     @Override
-    public User getUserByUsername(String username) {
+    public synchronized User getUserByUsername(String username) {
         if (username == null) {
             return null;
         }
 
-        String cleanUsername = username.toLowerCase().trim();
-        for (User user : users.values()) {
-            String currentUsername = user.getUsername();
-            if (currentUsername != null && currentUsername.equals(cleanUsername)) {
-                return user;
-            }
-        }
-
-        return null;
+        return usersByUsername.get(normalize(username));
     }
 
     @Override
-    public void updatePasswordHash(UUID userId, String hash) {
+    public synchronized void updatePasswordHash(UUID userId, String hash) {
         if (userId == null || hash == null) {
             return;
         }
@@ -123,4 +224,42 @@ public class UserFileRepository implements UserRepository {
         user.setPasswordHash(hash);
         saveUsers();
     }
+
+    @Override
+    public synchronized boolean updateUsername(UUID userId, String username) {
+        User user = getUserById(userId);
+        if (user == null || username == null) {
+            return false;
+        }
+
+        User owner = usersByUsername.get(normalize(username));
+        if (owner != null && owner != user) {
+            return false;
+        }
+
+        unindex(user);
+        user.setUsername(username);
+        index(user);
+        saveUsers();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateEmail(UUID userId, String email) {
+        User user = getUserById(userId);
+        if (user == null || email == null) {
+            return false;
+        }
+
+        User owner = usersByEmail.get(normalize(email));
+        if (owner != null && owner != user) {
+            return false;
+        }
+
+        unindex(user);
+        user.setEmail(email);
+        index(user);
+        saveUsers();
+        return true;
+    }
 }
@@ -0,0 +1,204 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.User;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An implementation of UserRepository on an embedded H2 database file,
+ * with unique indexes on username and email for lookups
+ */
+public class UserJdbcRepository implements UserRepository {
+
+    private static final String DATABASE_URL = "jdbc:h2:./data/prospera";
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS users (
+                id UUID PRIMARY KEY,
+                username VARCHAR(255),
+                email VARCHAR(255),
+                password_hash VARCHAR(255)
+            )""";
+    private static final String CREATE_USERNAME_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS users_username ON users (username)";
+    private static final String CREATE_EMAIL_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS users_email ON users (email)";
+
+    private static final String COLUMNS = "id, username, email, password_hash";
+    private static final String INSERT = "INSERT INTO users (" + COLUMNS + ") VALUES (?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM users WHERE id = ?";
+    private static final String SELECT_BY_ID = "SELECT " + COLUMNS + " FROM users WHERE id = ?";
+    private static final String SELECT_BY_EMAIL = "SELECT " + COLUMNS + " FROM users WHERE email = ?";
+    private static final String SELECT_BY_USERNAME = "SELECT " + COLUMNS + " FROM users WHERE username = ?";
+    private static final String SELECT_ALL = "SELECT " + COLUMNS + " FROM users";
+    private static final String UPDATE_PASSWORD_HASH = "UPDATE users SET password_hash = ? WHERE id = ?";
+    private static final String UPDATE_USERNAME = "UPDATE users SET username = ? WHERE id = ?";
+    private static final String UPDATE_EMAIL = "UPDATE users SET email = ? WHERE id = ?";
+
+    private final Connection connection;
+
+    public UserJdbcRepository() throws SQLException {
+        this(DATABASE_URL);
+    }
+
+    /**
+     * @param jdbcUrl : the database to connect to, e.g. {@code jdbc:h2:./data/prospera}
+     * @throws SQLException : if the database could not be opened or its schema created
+     */
+    public UserJdbcRepository(String jdbcUrl) throws SQLException {
+        connection = DriverManager.getConnection(jdbcUrl);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            statement.execute(CREATE_USERNAME_INDEX);
+            statement.execute(CREATE_EMAIL_INDEX);
+        }
+    }
+
+    /**
+     * Closes the database connection
+     */
+    public synchronized void close() {
+        try {
+            connection.close();
+        }
+        catch (SQLException exception) {
+            System.err.println("Error closing user database: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Normalizes a username or email the same way {@link User} stores it
+     */
+    private static String normalize(String key) {
+        return key.toLowerCase().trim();
+    }
+
+    @Override
+    public synchronized boolean add(User user) {
+        if (user == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            statement.setObject(1, user.getId());
+            statement.setString(2, user.getUsername());
+            statement.setString(3, user.getEmail());
+            statement.setString(4, user.getPasswordHash());
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLIntegrityConstraintViolationException exception) {
+            return false;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error adding user: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized User getUserById(UUID userId) {
+        return userId != null ? selectOne(SELECT_BY_ID, userId) : null;
+    }
+
+    @Override
+    public synchronized boolean removeUser(UUID userId) {
+        if (userId == null) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+            statement.setObject(1, userId);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error removing user: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized User getUserByEmail(String email) {
+        return email != null ? selectOne(SELECT_BY_EMAIL, normalize(email)) : null;
+    }
+
+    @Override
+    public synchronized User getUserByUsername(String username) {
+        return username != null ? selectOne(SELECT_BY_USERNAME, normalize(username)) : null;
+    }
+
+    @Override
+    public synchronized List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet rows = statement.executeQuery(SELECT_ALL)) {
+            while (rows.next()) {
+                users.add(new User(rows.getObject(1, UUID.class), rows.getString(2), rows.getString(3), rows.getString(4)));
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error reading users: " + exception.getMessage());
+        }
+        return users;
+    }
+
+    private User selectOne(String query, Object key) {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setObject(1, key);
+            try (ResultSet rows = statement.executeQuery()) {
+                if (!rows.next()) {
+                    return null;
+                }
+                return new User(rows.getObject(1, UUID.class), rows.getString(2), rows.getString(3), rows.getString(4));
+            }
+        }
+        catch (SQLException exception) {
+            System.err.println("Error reading user: " + exception.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void updatePasswordHash(UUID userId, String hash) {
+        if (userId == null || hash == null) {
+            return;
+        }
+
+        update(UPDATE_PASSWORD_HASH, hash, userId);
+    }
+
+    @Override
+    public synchronized boolean updateUsername(UUID userId, String username) {
+        if (userId == null || username == null) {
+            return false;
+        }
+
+        return update(UPDATE_USERNAME, normalize(username), userId);
+    }
+
+    @Override
+    public synchronized boolean updateEmail(UUID userId, String email) {
+        if (userId == null || email == null) {
+            return false;
+        }
+
+        return update(UPDATE_EMAIL, normalize(email), userId);
+    }
+
+    /**
+     * Runs a single-column update, returning false if the user does not exist or the new value is taken by another user
+     */
+    private boolean update(String query, String value, UUID userId) {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, value);
+            statement.setObject(2, userId);
+            return statement.executeUpdate() == 1;
+        }
+        catch (SQLIntegrityConstraintViolationException exception) {
+            return false;
+        }
+        catch (SQLException exception) {
+            System.err.println("Error updating user: " + exception.getMessage());
+            return false;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package fcai.prospera.repository;
 
 import fcai.prospera.model.User;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -24,6 +25,12 @@ public interface UserRepository {
      */
     User getUserById(UUID userId);
 
+    /**
+     * gets all users
+     * @return a snapshot of all users
+     */
+    List<User> getAllUsers();
+
     /**
      * removes user from database
      * @param userId : user id to be removed
@@ -51,4 +58,20 @@ public interface UserRepository {
      * @param hash : new password hash
      */
     void updatePasswordHash(UUID userId, String hash);
+
+    /**
+     * updates user username
+     * @param userId : user id
+     * @param username : new username
+     * @return true if updated, false if the user does not exist or the username is taken
+     */
+    boolean updateUsername(UUID userId, String username);
+
+    /**
+     * updates user email
+     * @param userId : user id
+     * @param email : new email
+     * @return true if updated, false if the user does not exist or the email is taken
+     */
+    boolean updateEmail(UUID userId, String email);
 }
@@ -0,0 +1,700 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.ValuationPoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only store of asset valuation history, kept apart from the assets file.
+ * <p>
+ * Points are compressed in blocks the way Gorilla does it: timestamps (in seconds) as delta-of-deltas, which cost a
+ * single bit for regular ticks, and values as the XOR of consecutive unscaled decimals, which cost a single bit when
+ * the value did not change and only the differing bits otherwise. Each asset collects {@value #BLOCK_POINTS} points
+ * before they are sealed into a block and appended to the file, so blocks stay full however the points are spread
+ * over sessions.
+ * <p>
+ * A file starts with {@code [magic][version]}, followed by blocks of
+ * {@code [asset id][point count][first second][last second][scale][length][compressed points]}. The block headers
+ * are indexed on first use, so range reads decode only the blocks that overlap the range.
+ * <p>
+ * Points not sealed yet are also written as they come to a tail file next to the history file, as fixed-size records
+ * of {@code [asset id][point index][second][scale][unscaled value][crc32]}, and reloaded into the open blocks when
+ * the store is opened again. The point index is the position of the point in the asset's history, so records whose
+ * points were sealed since are skipped; the tail is rewritten with only the open points once most of it is sealed.
+ */
+public class ValuationHistoryStore {
+    private static final int MAGIC = 0x50525356; // "PRSV"
+    private static final short VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 6;
+    private static final int BLOCK_HEADER_SIZE = 41;
+
+    private static final int TAIL_MAGIC = 0x50525354; // "PRST"
+    private static final int TAIL_RECORD_SIZE = 45;
+    private static final int TAIL_SLACK_RECORDS = 1024;
+
+    private static final int BLOCK_POINTS = 128;
+    private static final int MAX_SCALE = 10;
+
+    private final File file;
+    private final File tailFile;
+    private RandomAccessFile data;
+    private RandomAccessFile tail;
+    private long tailRecords;
+    private final HashMap<UUID, List<BlockRef>> blocksByAsset = new HashMap<>();
+    private final HashMap<UUID, Long> sealedPoints = new HashMap<>();
+    private final HashMap<UUID, OpenBlock> openBlocks = new HashMap<>();
+
+    /**
+     * @param filePath : the history file, created if it does not exist
+     */
+    public ValuationHistoryStore(String filePath) {
+        this.file = new File(filePath);
+        String path = file.getPath();
+        int extension = path.lastIndexOf('.');
+        String base = extension > path.lastIndexOf(File.separatorChar) ? path.substring(0, extension) : path;
+        this.tailFile = new File(base + ".tail");
+    }
+
+    /**
+     * Records an asset's value at a point in time. Points must arrive in time order per asset; a point older than
+     * the asset's last one is recorded at the last one's time.
+     * @param assetId : asset id
+     * @param timestamp : when the asset had the value
+     * @param value : the value
+     * @return true if the point was recorded, false otherwise
+     */
+    public synchronized boolean append(UUID assetId, Instant timestamp, BigDecimal value) {
+        if (assetId == null || timestamp == null || value == null || !open()) {
+            return false;
+        }
+
+        BigDecimal normalized = value.setScale(Math.min(Math.max(value.stripTrailingZeros().scale(), 0), MAX_SCALE), RoundingMode.HALF_UP);
+        if (normalized.unscaledValue().bitLength() > 63) {
+            System.err.println("Value " + value + " of asset " + assetId + " is too large for the valuation history");
+            return false;
+        }
+
+        long second = Math.max(timestamp.getEpochSecond(), lastSecond(assetId));
+        try {
+            writeTailRecord(tail, assetId, nextPointIndex(assetId), second, normalized.scale(), normalized.unscaledValue().longValue());
+            tailRecords++;
+        }
+        catch (IOException exception) {
+            System.err.println("Error writing valuation history of asset " + assetId + ": " + exception.getMessage());
+            return false;
+        }
+        addPoint(assetId, second, normalized);
+        return true;
+    }
+
+    /**
+     * Adds a point to the asset's open block, sealing the block when it is full or cannot take the point's scale
+     */
+    private void addPoint(UUID assetId, long second, BigDecimal value) {
+        OpenBlock block = openBlocks.get(assetId);
+        if (block != null && !block.add(second, value)) {
+            seal(assetId, block);
+            block = null;
+        }
+        if (block == null) {
+            block = new OpenBlock(value.scale());
+            block.add(second, value);
+            openBlocks.put(assetId, block);
+        }
+        if (block.size == BLOCK_POINTS) {
+            seal(assetId, block);
+        }
+    }
+
+    /**
+     * @return the position in the asset's history of the next point recorded for it
+     */
+    private long nextPointIndex(UUID assetId) {
+        OpenBlock block = openBlocks.get(assetId);
+        return sealedPoints.getOrDefault(assetId, 0L) + (block != null ? block.size : 0);
+    }
+
+    /**
+     * Gets the recorded values of an asset in a time range
+     * @param assetId : asset id
+     * @param from : start of the range, inclusive
+     * @param to : end of the range, inclusive
+     * @return the points in time order
+     */
+    public synchronized List<ValuationPoint> getHistory(UUID assetId, Instant from, Instant to) {
+        List<ValuationPoint> points = new ArrayList<>();
+        scan(assetId, from, to, (second, unscaled, scale) ->
+                points.add(new ValuationPoint(Instant.ofEpochSecond(second), BigDecimal.valueOf(unscaled, scale))));
+        return points;
+    }
+
+    /**
+     * Gets the values of an asset in a time range downsampled to one point per interval, the last one recorded in
+     * each interval, for charts covering long ranges
+     * @param assetId : asset id
+     * @param from : start of the range, inclusive; intervals are aligned to it
+     * @param to : end of the range, inclusive
+     * @param interval : the length of each interval, at least a second
+     * @return at most one point per interval, in time order
+     */
+    public synchronized List<ValuationPoint> getDownsampledHistory(UUID assetId, Instant from, Instant to, Duration interval) {
+        if (interval == null || interval.getSeconds() < 1) {
+            return getHistory(assetId, from, to);
+        }
+
+        long start = from != null ? from.getEpochSecond() : Long.MIN_VALUE;
+        long length = interval.getSeconds();
+        List<ValuationPoint> points = new ArrayList<>();
+        long[] bucket = {Long.MIN_VALUE};
+        scan(assetId, from, to, (second, unscaled, scale) -> {
+            long pointBucket = start == Long.MIN_VALUE ? Math.floorDiv(second, length) : (second - start) / length;
+            ValuationPoint point = new ValuationPoint(Instant.ofEpochSecond(second), BigDecimal.valueOf(unscaled, scale));
+            if (pointBucket == bucket[0]) {
+                points.set(points.size() - 1, point);
+            }
+            else {
+                points.add(point);
+                bucket[0] = pointBucket;
+            }
+        });
+        return points;
+    }
+
+    /**
+     * Forces the history file and its tail to disk; points in partial blocks stay in the tail
+     */
+    public synchronized void flush() {
+        if (data == null) {
+            return;
+        }
+
+        try {
+            data.getChannel().force(false);
+            tail.getChannel().force(false);
+        }
+        catch (IOException exception) {
+            System.err.println("Error syncing valuation history: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Flushes and closes the history file and its tail
+     */
+    public synchronized void close() {
+        if (data == null) {
+            return;
+        }
+
+        flush();
+        try {
+            data.close();
+            tail.close();
+        }
+        catch (IOException exception) {
+            System.err.println("Error closing valuation history: " + exception.getMessage());
+        }
+        data = null;
+        tail = null;
+        blocksByAsset.clear();
+        sealedPoints.clear();
+        openBlocks.clear();
+    }
+
+    /**
+     * Opens the file and indexes its blocks if not done yet; a block cut short by a crash is truncated away
+     * @return true if the file is open
+     */
+    private boolean open() {
+        if (data != null) {
+            return true;
+        }
+
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                System.err.println("Could not create directory " + parent.getPath());
+            }
+            RandomAccessFile opened = new RandomAccessFile(file, "rw");
+            if (opened.length() == 0) {
+                opened.writeInt(MAGIC);
+                opened.writeShort(VERSION);
+            }
+            else if (opened.length() < FILE_HEADER_SIZE || opened.readInt() != MAGIC || opened.readShort() != VERSION) {
+                opened.close();
+                System.err.println("Unrecognized valuation history file " + file.getPath());
+                return false;
+            }
+
+            long offset = FILE_HEADER_SIZE;
+            long end = opened.length();
+            byte[] header = new byte[BLOCK_HEADER_SIZE];
+            while (offset < end) {
+                if (offset + BLOCK_HEADER_SIZE > end) {
+                    break;
+                }
+                opened.seek(offset);
+                opened.readFully(header);
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                UUID assetId = new UUID(buffer.getLong(), buffer.getLong());
+                BlockRef block = new BlockRef(offset + BLOCK_HEADER_SIZE, buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.get(), buffer.getInt());
+                if (block.payloadOffset + block.length > end) {
+                    break;
+                }
+                blocksByAsset.computeIfAbsent(assetId, id -> new ArrayList<>()).add(block);
+                sealedPoints.merge(assetId, (long) block.count, Long::sum);
+                offset = block.payloadOffset + block.length;
+            }
+            if (offset < end) {
+                System.err.println("Truncating incomplete block at the end of valuation history " + file.getPath());
+                opened.setLength(offset);
+            }
+            data = opened;
+        }
+        catch (IOException exception) {
+            System.err.println("Error opening valuation history: " + exception.getMessage());
+            return false;
+        }
+
+        try {
+            tail = openTail();
+            compactTailIfNeeded();
+            return true;
+        }
+        catch (IOException exception) {
+            System.err.println("Error opening valuation history tail: " + exception.getMessage());
+            closeQuietly(data);
+            data = null;
+            blocksByAsset.clear();
+            sealedPoints.clear();
+            openBlocks.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Opens the tail file and reloads its unsealed points into the open blocks; records cut short or damaged by a
+     * crash are truncated away
+     */
+    private RandomAccessFile openTail() throws IOException {
+        RandomAccessFile opened = new RandomAccessFile(tailFile, "rw");
+        try {
+            if (opened.length() == 0) {
+                opened.writeInt(TAIL_MAGIC);
+                opened.writeShort(VERSION);
+                tailRecords = 0;
+                return opened;
+            }
+            if (opened.length() < FILE_HEADER_SIZE || opened.readInt() != TAIL_MAGIC || opened.readShort() != VERSION) {
+                throw new IOException("Unrecognized valuation history tail " + tailFile.getPath());
+            }
+
+            byte[] records = new byte[(int) (opened.length() - FILE_HEADER_SIZE)];
+            opened.readFully(records);
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            long count = 0;
+            while (buffer.remaining() >= TAIL_RECORD_SIZE) {
+                int start = buffer.position();
+                CRC32 crc = new CRC32();
+                crc.update(records, start, TAIL_RECORD_SIZE - 4);
+                UUID assetId = new UUID(buffer.getLong(), buffer.getLong());
+                long index = buffer.getLong();
+                long second = buffer.getLong();
+                int scale = buffer.get();
+                long unscaled = buffer.getLong();
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    buffer.position(start);
+                    break;
+                }
+                count++;
+
+                long next = nextPointIndex(assetId);
+                if (index == next) {
+                    addPoint(assetId, second, BigDecimal.valueOf(unscaled, scale));
+                }
+                else if (index > next) {
+                    System.err.println("Missing points in valuation history tail of asset " + assetId);
+                }
+            }
+            if (buffer.hasRemaining()) {
+                System.err.println("Truncating incomplete record at the end of valuation history tail " + tailFile.getPath());
+                opened.setLength(FILE_HEADER_SIZE + buffer.position());
+            }
+            opened.seek(opened.length());
+            tailRecords = count;
+            return opened;
+        }
+        catch (IOException exception) {
+            closeQuietly(opened);
+            throw exception;
+        }
+    }
+
+    /**
+     * Appends a record to the tail; the tail is always positioned at its end
+     */
+    private static void writeTailRecord(RandomAccessFile out, UUID assetId, long index, long second, int scale, long unscaled) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TAIL_RECORD_SIZE);
+        buffer.putLong(assetId.getMostSignificantBits()).putLong(assetId.getLeastSignificantBits())
+                .putLong(index).putLong(second).put((byte) scale).putLong(unscaled);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, TAIL_RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+        out.write(buffer.array());
+    }
+
+    /**
+     * Rewrites the tail with only the points of the open blocks once most of its records were sealed
+     */
+    private void compactTailIfNeeded() throws IOException {
+        long openPoints = 0;
+        for (OpenBlock block : openBlocks.values()) {
+            openPoints += block.size;
+        }
+        if (tailRecords <= 2 * openPoints + TAIL_SLACK_RECORDS) {
+            return;
+        }
+
+        File compacted = new File(tailFile.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            out.setLength(0);
+            out.writeInt(TAIL_MAGIC);
+            out.writeShort(VERSION);
+            for (Map.Entry<UUID, OpenBlock> entry : openBlocks.entrySet()) {
+                OpenBlock block = entry.getValue();
+                long firstIndex = sealedPoints.getOrDefault(entry.getKey(), 0L);
+                for (int i = 0; i < block.size; i++) {
+                    writeTailRecord(out, entry.getKey(), firstIndex + i, block.seconds[i], block.scale, block.unscaled[i]);
+                }
+            }
+            out.getChannel().force(false);
+        }
+        // the sealed points must be on disk before the records that could restore them are dropped
+        data.getChannel().force(false);
+        tail.close();
+        try {
+            Files.move(compacted.toPath(), tailFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tailRecords = openPoints;
+        }
+        finally {
+            tail = new RandomAccessFile(tailFile, "rw");
+            tail.seek(tail.length());
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        try {
+            file.close();
+        }
+        catch (IOException ignored) {
+            // already failing
+        }
+    }
+
+    private long lastSecond(UUID assetId) {
+        OpenBlock block = openBlocks.get(assetId);
+        if (block != null) {
+            return block.seconds[block.size - 1];
+        }
+        List<BlockRef> blocks = blocksByAsset.get(assetId);
+        return blocks != null ? blocks.get(blocks.size() - 1).lastSecond : Long.MIN_VALUE;
+    }
+
+    /**
+     * Compresses an open block and appends it to the file
+     */
+    private void seal(UUID assetId, OpenBlock block) {
+        openBlocks.remove(assetId);
+        byte[] payload = encode(block);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + payload.length);
+        buffer.putLong(assetId.getMostSignificantBits()).putLong(assetId.getLeastSignificantBits())
+                .putInt(block.size).putLong(block.seconds[0]).putLong(block.seconds[block.size - 1])
+                .put((byte) block.scale).putInt(payload.length).put(payload);
+        try {
+            long offset = data.length();
+            data.seek(offset);
+            data.write(buffer.array());
+            blocksByAsset.computeIfAbsent(assetId, id -> new ArrayList<>()).add(new BlockRef(offset + BLOCK_HEADER_SIZE, block.size,
+                    block.seconds[0], block.seconds[block.size - 1], (byte) block.scale, payload.length));
+            sealedPoints.merge(assetId, (long) block.size, Long::sum);
+            if (tail != null) {
+                compactTailIfNeeded();
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error writing valuation history of asset " + assetId + ": " + exception.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface PointConsumer {
+        void accept(long second, long unscaled, int scale);
+    }
+
+    /**
+     * Feeds the points of an asset in a time range to a consumer, decoding only the blocks that overlap the range
+     */
+    private void scan(UUID assetId, Instant from, Instant to, PointConsumer consumer) {
+        if (assetId == null || !open()) {
+            return;
+        }
+
+        long fromSecond = from != null ? from.getEpochSecond() : Long.MIN_VALUE;
+        long toSecond = to != null ? to.getEpochSecond() : Long.MAX_VALUE;
+        for (BlockRef block : blocksByAsset.getOrDefault(assetId, List.of())) {
+            if (block.lastSecond < fromSecond || block.firstSecond > toSecond) {
+                continue;
+            }
+            try {
+                byte[] payload = new byte[block.length];
+                data.seek(block.payloadOffset);
+                data.readFully(payload);
+                decode(payload, block.count, (second, unscaled, scale) -> {
+                    if (second >= fromSecond && second <= toSecond) {
+                        consumer.accept(second, unscaled, scale);
+                    }
+                }, block.scale);
+            }
+            catch (IOException exception) {
+                System.err.println("Error reading valuation history of asset " + assetId + ": " + exception.getMessage());
+            }
+        }
+
+        OpenBlock open = openBlocks.get(assetId);
+        if (open != null) {
+            for (int i = 0; i < open.size; i++) {
+                if (open.seconds[i] >= fromSecond && open.seconds[i] <= toSecond) {
+                    consumer.accept(open.seconds[i], open.unscaled[i], open.scale);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a block: the first point in full, then each timestamp as a delta-of-delta and each value as the
+     * XOR with the previous one
+     */
+    private static byte[] encode(OpenBlock block) {
+        BitWriter out = new BitWriter(block.size * 4 + 16);
+        out.write(block.seconds[0], 64);
+        out.write(block.unscaled[0], 64);
+
+        long previousDelta = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < block.size; i++) {
+            long delta = block.seconds[i] - block.seconds[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+            if (deltaOfDelta == 0) {
+                out.write(0b0, 1);
+            }
+            else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta + 63, 7);
+            }
+            else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta + 255, 9);
+            }
+            else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            }
+            else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+                out.write(0b11110, 5);
+                out.write(deltaOfDelta, 32);
+            }
+            else {
+                out.write(0b11111, 5);
+                out.write(deltaOfDelta, 64);
+            }
+
+            long xor = block.unscaled[i] ^ block.unscaled[i - 1];
+            if (xor == 0) {
+                out.write(0b0, 1);
+                continue;
+            }
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            }
+            else {
+                int significant = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void decode(byte[] payload, int count, PointConsumer consumer, int scale) {
+        BitReader in = new BitReader(payload);
+        long second = in.read(64);
+        long unscaled = in.read(64);
+        consumer.accept(second, unscaled, scale);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long deltaOfDelta;
+            if (in.read(1) == 0) {
+                deltaOfDelta = 0;
+            }
+            else if (in.read(1) == 0) {
+                deltaOfDelta = in.read(7) - 63;
+            }
+            else if (in.read(1) == 0) {
+                deltaOfDelta = in.read(9) - 255;
+            }
+            else if (in.read(1) == 0) {
+                deltaOfDelta = in.read(12) - 2047;
+            }
+            else if (in.read(1) == 0) {
+                deltaOfDelta = (int) in.read(32);
+            }
+            else {
+                deltaOfDelta = in.read(64);
+            }
+            delta += deltaOfDelta;
+            second += delta;
+
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    trailing = 64 - leading - ((int) in.read(6) + 1);
+                }
+                unscaled ^= in.read(64 - leading - trailing) << trailing;
+            }
+            consumer.accept(second, unscaled, scale);
+        }
+    }
+
+    /**
+     * @throws ArithmeticException : if the power does not fit a long
+     */
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result = Math.multiplyExact(result, 10L);
+        }
+        return result;
+    }
+
+    /**
+     * The location and time range of a sealed block in the file
+     */
+    private record BlockRef(long payloadOffset, int count, long firstSecond, long lastSecond, byte scale, int length) { }
+
+    /**
+     * The points of an asset not yet sealed into a block, with values as unscaled longs at a common scale
+     */
+    private static final class OpenBlock {
+        private long[] seconds = new long[8];
+        private long[] unscaled = new long[8];
+        private int scale;
+        private int size;
+
+        OpenBlock(int scale) {
+            this.scale = scale;
+        }
+
+        /**
+         * @return false if the value cannot share this block's scale, in which case the block should be sealed
+         */
+        boolean add(long second, BigDecimal value) {
+            try {
+                // rescale into a copy, so a point that overflows leaves the block as it was
+                long[] rescaled = unscaled;
+                int newScale = scale;
+                if (value.scale() > scale) {
+                    long factor = pow10(value.scale() - scale);
+                    rescaled = new long[unscaled.length];
+                    for (int i = 0; i < size; i++) {
+                        rescaled[i] = Math.multiplyExact(unscaled[i], factor);
+                    }
+                    newScale = value.scale();
+                }
+                long valueUnscaled = Math.multiplyExact(value.unscaledValue().longValueExact(), pow10(newScale - value.scale()));
+                unscaled = rescaled;
+                scale = newScale;
+                if (size == seconds.length) {
+                    seconds = Arrays.copyOf(seconds, size * 2);
+                    unscaled = Arrays.copyOf(unscaled, size * 2);
+                }
+                seconds[size] = second;
+                unscaled[size] = valueUnscaled;
+                size++;
+                return true;
+            }
+            catch (ArithmeticException overflow) {
+                return false;
+            }
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long bitCount;
+
+        BitWriter(int initialBytes) {
+            bytes = new byte[initialBytes];
+        }
+
+        /**
+         * Writes the lowest {@code bits} bits of a value, most significant first
+         */
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                int index = (int) (bitCount >>> 3);
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    bytes[index] |= (byte) (0x80 >>> (bitCount & 7));
+                }
+                bitCount++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bitCount + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] bytes;
+        private long position;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                int bit = (bytes[(int) (position >>> 3)] >>> (7 - (position & 7))) & 1;
+                value = (value << 1) | bit;
+                position++;
+            }
+            return value;
+        }
+    }
+}
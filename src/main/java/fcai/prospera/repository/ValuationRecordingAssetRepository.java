@@ -0,0 +1,236 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetRecord;
+import fcai.prospera.model.AssetType;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * An AssetRepository that delegates to another one and records every value an asset takes in a
+ * {@link ValuationHistoryStore}: the initial value when it is added and the new value whenever it is updated.
+ * Removing an asset keeps its history.
+ * <p>
+ * If given a {@link HoldingsHistoryStore}, every change is also recorded there for its user, whose history is
+ * started from their current assets right before their first recorded change (or by {@link #track(UUID)}).
+ */
+public class ValuationRecordingAssetRepository implements AssetRepository {
+    private final AssetRepository delegate;
+    private final ValuationHistoryStore history;
+    private final HoldingsHistoryStore holdings;
+    private final Clock clock;
+
+    /**
+     * @param delegate : the repository holding the assets
+     * @param history : the store the values are recorded in
+     */
+    public ValuationRecordingAssetRepository(AssetRepository delegate, ValuationHistoryStore history) {
+        this(delegate, history, null, Clock.systemUTC());
+    }
+
+    /**
+     * @param delegate : the repository holding the assets
+     * @param history : the store the values are recorded in
+     * @param holdings : the store the changes are recorded in per user, or null
+     */
+    public ValuationRecordingAssetRepository(AssetRepository delegate, ValuationHistoryStore history, HoldingsHistoryStore holdings) {
+        this(delegate, history, holdings, Clock.systemUTC());
+    }
+
+    /**
+     * @param delegate : the repository holding the assets
+     * @param history : the store the values are recorded in
+     * @param holdings : the store the changes are recorded in per user, or null
+     * @param clock : the clock timestamping the values
+     */
+    public ValuationRecordingAssetRepository(AssetRepository delegate, ValuationHistoryStore history, HoldingsHistoryStore holdings,
+                                             Clock clock) {
+        if (delegate == null || history == null || clock == null) {
+            throw new IllegalArgumentException("Delegate repository, history store and clock cannot be null.");
+        }
+        this.delegate = delegate;
+        this.history = history;
+        this.holdings = holdings;
+        this.clock = clock;
+    }
+
+    /**
+     * Starts a user's holdings history from their current assets, if it has not started yet
+     * @param userId : user id
+     */
+    public void track(UUID userId) {
+        if (holdings != null && userId != null && !holdings.isTracked(userId)) {
+            holdings.checkpoint(userId, Instant.now(clock), delegate.getUserAssetRecords(userId));
+        }
+    }
+
+    /**
+     * @return a snapshot of the asset before a change, starting its user's history if needed
+     */
+    private AssetRecord before(UUID assetId) {
+        if (holdings == null || assetId == null) {
+            return null;
+        }
+        Asset asset = delegate.getAssetById(assetId);
+        if (asset == null) {
+            return null;
+        }
+        track(asset.getUserId());
+        return asset.toRecord();
+    }
+
+    private void record(AssetRecord before, UUID assetId, BigDecimal value) {
+        Instant now = Instant.now(clock);
+        if (value != null) {
+            history.append(assetId, now, value);
+        }
+        if (holdings != null) {
+            Asset after = delegate.getAssetById(assetId);
+            holdings.recordChange(now, before, after != null ? after.toRecord() : null);
+        }
+    }
+
+    @Override
+    public boolean addAsset(Asset asset) {
+        if (asset != null) {
+            track(asset.getUserId());
+        }
+        boolean added = delegate.addAsset(asset);
+        if (added) {
+            record(null, asset.getId(), asset.getCurrentValue());
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeAsset(UUID assetId) {
+        AssetRecord before = before(assetId);
+        boolean removed = delegate.removeAsset(assetId);
+        if (removed && holdings != null) {
+            holdings.recordChange(Instant.now(clock), before, null);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean updateAsset(UUID assetId, Asset newAsset) {
+        AssetRecord before = before(assetId);
+        if (newAsset != null) {
+            track(newAsset.getUserId());
+        }
+        boolean updated = delegate.updateAsset(assetId, newAsset);
+        if (updated) {
+            record(before, assetId, newAsset.getCurrentValue());
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean updateCurrentValue(UUID assetId, BigDecimal newValue) {
+        AssetRecord before = before(assetId);
+        boolean updated = delegate.updateCurrentValue(assetId, newValue);
+        if (updated) {
+            record(before, assetId, newValue);
+        }
+        return updated;
+    }
+
+    @Override
+    public void batch(Runnable changes) {
+        delegate.batch(changes);
+    }
+
+    @Override
+    public Map<UUID, Boolean> addAssets(Collection<Asset> assets) {
+        for (Asset asset : assets) {
+            if (asset != null) {
+                track(asset.getUserId());
+            }
+        }
+        Map<UUID, Boolean> results = delegate.addAssets(assets);
+        for (Asset asset : assets) {
+            if (asset != null && Boolean.TRUE.equals(results.get(asset.getId()))) {
+                record(null, asset.getId(), asset.getCurrentValue());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<UUID, Boolean> removeAssets(Collection<UUID> assetIds) {
+        Map<UUID, AssetRecord> befores = befores(assetIds);
+        Map<UUID, Boolean> results = delegate.removeAssets(assetIds);
+        if (holdings != null) {
+            Instant now = Instant.now(clock);
+            for (Map.Entry<UUID, Boolean> result : results.entrySet()) {
+                if (result.getValue()) {
+                    holdings.recordChange(now, befores.get(result.getKey()), null);
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<UUID, Boolean> updateCurrentValues(Map<UUID, BigDecimal> newValues) {
+        Map<UUID, AssetRecord> befores = befores(newValues.keySet());
+        Map<UUID, Boolean> results = delegate.updateCurrentValues(newValues);
+        for (Map.Entry<UUID, Boolean> result : results.entrySet()) {
+            if (result.getValue()) {
+                record(befores.get(result.getKey()), result.getKey(), newValues.get(result.getKey()));
+            }
+        }
+        return results;
+    }
+
+    private Map<UUID, AssetRecord> befores(Collection<UUID> assetIds) {
+        Map<UUID, AssetRecord> befores = new HashMap<>();
+        if (holdings != null) {
+            for (UUID assetId : assetIds) {
+                AssetRecord before = before(assetId);
+                if (before != null) {
+                    befores.put(assetId, before);
+                }
+            }
+        }
+        return befores;
+    }
+
+    @Override
+    public Asset getAssetById(UUID assetId) {
+        return delegate.getAssetById(assetId);
+    }
+
+    @Override
+    public List<Asset> getUserAssets(UUID userId) {
+        return delegate.getUserAssets(userId);
+    }
+
+    @Override
+    public List<AssetRecord> getUserAssetRecords(UUID userId) {
+        return delegate.getUserAssetRecords(userId);
+    }
+
+    @Override
+    public List<Asset> getUserAssetsPurchasedBetween(UUID userId, Instant from, Instant to) {
+        return delegate.getUserAssetsPurchasedBetween(userId, from, to);
+    }
+
+    @Override
+    public BigDecimal calculateNetWorth(UUID userId) {
+        return delegate.calculateNetWorth(userId);
+    }
+
+    @Override
+    public Map<Currency, BigDecimal> getUserTotalsByCurrency(UUID userId) {
+        return delegate.getUserTotalsByCurrency(userId);
+    }
+
+    @Override
+    public Map<AssetType, BigDecimal> getUserAssetDistribution(UUID userId) {
+        return delegate.getUserAssetDistribution(userId);
+    }
+}
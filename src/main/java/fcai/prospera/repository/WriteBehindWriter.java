@@ -0,0 +1,184 @@
+package fcai.prospera.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a repository's file from a single background thread, coalescing all changes made within a window into one write.
+ * <p>
+ * Changes are counted in generations: every {@link #markDirty()} starts a new one, and a write makes durable the
+ * generation that was current when its snapshot was taken. Snapshots are taken while holding the repository lock,
+ * which is also held by the repository when it marks itself dirty, so a snapshot always includes its generation's changes.
+ */
+class WriteBehindWriter {
+    /**
+     * Encodes the repository's current state into a complete file image
+     */
+    @FunctionalInterface
+    interface Snapshot {
+        byte[] encode() throws IOException;
+    }
+
+    private final Path target;
+    private final Object repositoryLock;
+    private final Snapshot snapshot;
+    private final long windowMillis;
+    private final ScheduledExecutorService writer;
+
+    private long dirtyGeneration;
+    private long durableGeneration;
+    private ScheduledFuture<?> pendingWrite;
+
+    /**
+     * @param target : the file to write
+     * @param repositoryLock : the lock guarding the repository's state
+     * @param snapshot : encodes the repository's state, called while holding the repository lock
+     * @param window : how long changes are collected before they are written
+     * @param threadName : the name of the writer thread
+     */
+    WriteBehindWriter(Path target, Object repositoryLock, Snapshot snapshot, Duration window, String threadName) {
+        this.target = target;
+        this.repositoryLock = repositoryLock;
+        this.snapshot = snapshot;
+        this.windowMillis = window.toMillis();
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records that the repository changed, scheduling a write at the end of the current window
+     */
+    synchronized void markDirty() {
+        dirtyGeneration++;
+        if (pendingWrite == null) {
+            pendingWrite = writer.schedule(this::write, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts writing pending changes now instead of at the end of the window
+     */
+    synchronized void flush() {
+        if (durableGeneration == dirtyGeneration) {
+            return;
+        }
+        if (pendingWrite == null || pendingWrite.cancel(false)) {
+            pendingWrite = writer.schedule(this::write, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flushes and waits until every change made before the call has been written and forced to disk
+     * @param timeout : the maximum time to wait
+     * @param unit : the unit of the timeout
+     * @return true if the changes are durable, false if the timeout elapsed first
+     */
+    synchronized boolean awaitDurable(long timeout, TimeUnit unit) throws InterruptedException {
+        long generation = dirtyGeneration;
+        flush();
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (durableGeneration < generation) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Flushes pending changes and stops the writer thread, waiting for the last write to finish
+     * @param timeout : the maximum time to wait
+     * @param unit : the unit of the timeout
+     * @return true if the writer stopped within the timeout, false otherwise
+     */
+    boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        flush();
+        writer.shutdown();
+        return writer.awaitTermination(timeout, unit);
+    }
+
+    private void write() {
+        synchronized (this) {
+            pendingWrite = null;
+        }
+
+        long generation;
+        byte[] data;
+        try {
+            synchronized (repositoryLock) {
+                synchronized (this) {
+                    generation = dirtyGeneration;
+                }
+                data = snapshot.encode();
+            }
+            writeAtomically(target, data);
+        }
+        catch (IOException exception) {
+            System.err.println("Error writing " + target + ": " + exception.getMessage());
+            synchronized (this) {
+                if (pendingWrite == null && !writer.isShutdown()) {
+                    pendingWrite = writer.schedule(this::write, windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            durableGeneration = Math.max(durableGeneration, generation);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes a file image to a temporary file that is forced to disk and then renamed over the target,
+     * so readers see either the old or the new file but never a partially written one, and a power loss
+     * cannot keep the rename without the data
+     * @param target : the file to replace
+     * @param data : the new contents
+     */
+    static void writeAtomically(Path target, byte[] data) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces a directory to disk so a rename inside it survives a power loss; platforms that cannot open
+     * a directory for reading, such as Windows, are skipped
+     */
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException unsupported) {
+            // the rename is still atomic, only its durability is left to the file system
+        }
+    }
+}
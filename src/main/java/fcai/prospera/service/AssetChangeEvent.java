@@ -0,0 +1,59 @@
+package fcai.prospera.service;
+
+import fcai.prospera.model.AssetRecord;
+
+import java.util.UUID;
+
+/**
+ * A change to a single asset, published by {@link AssetService} to its {@link AssetService.AssetChangeListener}s
+ *
+ * @param type : what kind of change it was
+ * @param before : the asset before the change, null if it was added
+ * @param after : the asset after the change, null if it was removed
+ */
+public record AssetChangeEvent(Type type, AssetRecord before, AssetRecord after) {
+    /**
+     * The kinds of asset changes
+     */
+    public enum Type {
+        /** The asset was added */
+        ADDED,
+        /** The asset was removed */
+        REMOVED,
+        /** Only the current value of the asset changed */
+        VALUE_CHANGED,
+        /** Other fields of the asset changed, possibly including its owner */
+        FIELDS_CHANGED
+    }
+
+    /**
+     * @return the id of the changed asset
+     */
+    public UUID assetId() {
+        return after != null ? after.id() : before.id();
+    }
+
+    /**
+     * @param userId : a user id
+     * @return true if the change affects the user's assets, i.e. the user owned the asset before or after it
+     */
+    public boolean affects(UUID userId) {
+        return userId != null && ((before != null && userId.equals(before.userId())) || (after != null && userId.equals(after.userId())));
+    }
+
+    static AssetChangeEvent added(AssetRecord asset) {
+        return new AssetChangeEvent(Type.ADDED, null, asset);
+    }
+
+    static AssetChangeEvent removed(AssetRecord asset) {
+        return new AssetChangeEvent(Type.REMOVED, asset, null);
+    }
+
+    /**
+     * @return a VALUE_CHANGED event if only the current value differs, FIELDS_CHANGED otherwise
+     */
+    static AssetChangeEvent changed(AssetRecord before, AssetRecord after) {
+        boolean onlyValue = before.withCurrentValue(after.currentValue()).equals(after);
+        return new AssetChangeEvent(onlyValue ? Type.VALUE_CHANGED : Type.FIELDS_CHANGED, before, after);
+    }
+}
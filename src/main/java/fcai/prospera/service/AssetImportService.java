@@ -0,0 +1,556 @@
+package fcai.prospera.service;
+
+import fcai.prospera.CurrencyConversion;
+import fcai.prospera.ExchangeRateTable;
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetType;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Imports assets in bulk from CSV and XLSX files.
+ * <p>
+ * Rows are streamed rather than loaded as a whole: CSV is read line by line and XLSX through POI's SAX event reader.
+ * Rows are grouped into chunks that are parsed and validated in parallel, and valid assets are added to the
+ * repository in large batches, so memory stays bounded by the chunks in flight and one pending batch.
+ * <p>
+ * The first row may be a header naming the columns {@code name, type, purchase_price, purchase_date, current_value, currency}
+ * in any order; without one, the columns are expected in that order. Amounts use a point for decimals; commas are
+ * only accepted between groups of thousands, so a value written with a decimal comma is rejected rather than misread.
+ */
+public class AssetImportService {
+    /**
+     * Receives progress updates from an import, on the importing thread
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(long rowsRead, long rowsImported, long rowsRejected);
+    }
+
+    /**
+     * The outcome of an import
+     */
+    public record ImportResult(long imported, long rejected, List<String> errors, boolean cancelled) { }
+
+    private static final int CHUNK_SIZE = 2_000;
+    private static final int COMMIT_BATCH_SIZE = 10_000;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final String[] COLUMNS = {"name", "type", "purchase_price", "purchase_date", "current_value", "currency"};
+    private static final int NAME = 0, TYPE = 1, PURCHASE_PRICE = 2, PURCHASE_DATE = 3, CURRENT_VALUE = 4, CURRENCY = 5;
+
+    private static final List<DateTimeFormatter> DATE_FORMATS = List.of(
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("d/M/uuuu"),
+            DateTimeFormatter.ofPattern("d.M.uuuu")
+    );
+    private static final Pattern GROUPED_AMOUNT = Pattern.compile("\\d{1,3}(,\\d{3})+(\\.\\d+)?");
+
+    private final AssetService assetService;
+    private final int parserThreads;
+
+    /**
+     * @param assetService : the service the imported assets are added through
+     */
+    public AssetImportService(AssetService assetService) {
+        this.assetService = assetService;
+        this.parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Imports a CSV or XLSX file, chosen by its extension
+     * @param file : the file to import
+     * @param userId : the user the assets belong to
+     * @param listener : receives progress updates, may be null
+     * @return the import result
+     * @throws IOException : if the file could not be read
+     */
+    public ImportResult importFile(Path file, UUID userId, ProgressListener listener) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".xlsx")) {
+            return importXlsx(file, userId, listener);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return importCsv(in, userId, listener);
+        }
+    }
+
+    /**
+     * Imports assets from CSV
+     * @param in : the CSV content, UTF-8 encoded
+     * @param userId : the user the assets belong to
+     * @param listener : receives progress updates, may be null
+     * @return the import result
+     * @throws IOException : if the content could not be read
+     */
+    public ImportResult importCsv(InputStream in, UUID userId, ProgressListener listener) throws IOException {
+        Pipeline pipeline = new Pipeline(userId, listener);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            List<String> record;
+            while ((record = readCsvRecord(reader)) != null) {
+                pipeline.accept(record.toArray(new String[0]));
+            }
+            return pipeline.finish();
+        }
+        catch (ImportCancelledException cancelled) {
+            return pipeline.cancel();
+        }
+        finally {
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * Imports assets from the first sheet of an XLSX workbook, reading it with POI's streaming SAX reader
+     * @param file : the workbook
+     * @param userId : the user the assets belong to
+     * @param listener : receives progress updates, may be null
+     * @return the import result
+     * @throws IOException : if the workbook could not be read
+     */
+    public ImportResult importXlsx(Path file, UUID userId, ProgressListener listener) throws IOException {
+        Pipeline pipeline = new Pipeline(userId, listener);
+        try (OPCPackage workbook = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(workbook);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(workbook);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return pipeline.finish();
+            }
+
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null, strings,
+                        new SheetRows(pipeline), new IsoDateFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+            return pipeline.finish();
+        }
+        catch (ImportCancelledException cancelled) {
+            return pipeline.cancel();
+        }
+        catch (OpenXML4JException | SAXException | ParserConfigurationException exception) {
+            throw new IOException("Could not read workbook " + file + ": " + exception.getMessage(), exception);
+        }
+        finally {
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * Reads one CSV record, supporting quoted fields with escaped quotes and line breaks
+     * @return the fields, or null at the end of the input
+     */
+    private static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>(COLUMNS.length);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    }
+                    else if (c == '"') {
+                        quoted = false;
+                    }
+                    else {
+                        field.append(c);
+                    }
+                }
+                else if (c == '"') {
+                    quoted = true;
+                }
+                else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Collects the cells of each sheet row into an array and hands complete rows to the pipeline
+     */
+    private static final class SheetRows implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final Pipeline pipeline;
+        private String[] row;
+
+        SheetRows(Pipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            row = new String[COLUMNS.length];
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            pipeline.accept(row);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = new CellReference(cellReference).getCol();
+            if (column >= row.length) {
+                row = Arrays.copyOf(row, column + 1);
+            }
+            row[column] = formattedValue;
+        }
+    }
+
+    /**
+     * Formats date cells as ISO dates and other numeric cells as their plain value whatever their display format,
+     * so they parse the same way as CSV values; display formats would round and use the default locale's separators
+     */
+    private static final class IsoDateFormatter extends DataFormatter {
+        IsoDateFormatter() {
+            super(Locale.ROOT);
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                return DateUtil.getLocalDateTime(value, use1904Windowing).toLocalDate().toString();
+            }
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private static final class ImportCancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A validated chunk of rows
+     */
+    private record ParsedChunk(List<Asset> assets, List<String> errors, int rejected) { }
+
+    /**
+     * Groups rows into chunks, parses the chunks on a thread pool, and commits the parsed assets in order and in batches.
+     * At most a fixed number of chunks are in flight, so a fast reader waits for the parsers instead of buffering the file.
+     */
+    private final class Pipeline {
+        private final UUID userId;
+        private final ProgressListener listener;
+        private final ExecutorService parsers;
+        private final Deque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+        private final int maxInFlight = parserThreads * 2;
+        private final ExchangeRateTable rates = CurrencyConversion.getRateTable();
+
+        private int[] columns;
+        private List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        private long chunkFirstRow = 1;
+        private long rowsRead;
+        private long imported;
+        private long rejected;
+        private final List<Asset> pending = new ArrayList<>(COMMIT_BATCH_SIZE);
+        private final List<String> errors = new ArrayList<>();
+
+        Pipeline(UUID userId, ProgressListener listener) {
+            this.userId = userId;
+            this.listener = listener;
+            this.parsers = Executors.newFixedThreadPool(parserThreads, runnable -> {
+                Thread thread = new Thread(runnable, "asset-import-parser");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void accept(String[] row) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new ImportCancelledException();
+            }
+
+            rowsRead++;
+            if (columns == null) {
+                columns = headerColumns(row);
+                if (columns != null) {
+                    chunkFirstRow = rowsRead + 1;
+                    return;
+                }
+                columns = new int[] {0, 1, 2, 3, 4, 5};
+            }
+            if (isBlank(row)) {
+                // keep row numbers in error messages aligned with the file
+                row = null;
+            }
+
+            chunk.add(row);
+            if (chunk.size() == CHUNK_SIZE) {
+                submitChunk();
+            }
+        }
+
+        private void submitChunk() {
+            List<String[]> rows = chunk;
+            long firstRow = chunkFirstRow;
+            int[] mapping = columns;
+            chunk = new ArrayList<>(CHUNK_SIZE);
+            chunkFirstRow += rows.size();
+
+            while (inFlight.size() >= maxInFlight) {
+                collect(inFlight.removeFirst());
+            }
+            inFlight.addLast(parsers.submit(() -> parseChunk(rows, firstRow, mapping)));
+        }
+
+        private void collect(Future<ParsedChunk> future) {
+            ParsedChunk parsed;
+            try {
+                parsed = future.get();
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new ImportCancelledException();
+            }
+            catch (ExecutionException exception) {
+                throw new IllegalStateException("Asset import parser failed", exception.getCause());
+            }
+
+            rejected += parsed.rejected();
+            for (String error : parsed.errors()) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(error);
+                }
+            }
+            pending.addAll(parsed.assets());
+            if (pending.size() >= COMMIT_BATCH_SIZE) {
+                commit();
+            }
+            else {
+                reportProgress();
+            }
+        }
+
+        private void commit() {
+            if (!pending.isEmpty()) {
+                Map<UUID, Boolean> results = assetService.addAssets(pending);
+                for (Boolean added : results.values()) {
+                    if (added) {
+                        imported++;
+                    }
+                    else {
+                        rejected++;
+                    }
+                }
+                pending.clear();
+            }
+            reportProgress();
+        }
+
+        private void reportProgress() {
+            if (listener != null) {
+                listener.progress(rowsRead, imported, rejected);
+            }
+        }
+
+        ImportResult finish() {
+            if (!chunk.isEmpty()) {
+                submitChunk();
+            }
+            while (!inFlight.isEmpty()) {
+                collect(inFlight.removeFirst());
+            }
+            commit();
+            return new ImportResult(imported, rejected, List.copyOf(errors), false);
+        }
+
+        /**
+         * Stops the import, keeping the batches that were already committed
+         */
+        ImportResult cancel() {
+            for (Future<ParsedChunk> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+            return new ImportResult(imported, rejected, List.copyOf(errors), true);
+        }
+
+        void shutdown() {
+            parsers.shutdownNow();
+        }
+
+        private ParsedChunk parseChunk(List<String[]> rows, long firstRow, int[] mapping) {
+            List<Asset> assets = new ArrayList<>(rows.size());
+            List<String> chunkErrors = new ArrayList<>();
+            int chunkRejected = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                String[] row = rows.get(i);
+                if (row == null) {
+                    continue;
+                }
+                try {
+                    assets.add(parseRow(row, mapping));
+                }
+                catch (IllegalArgumentException | DateTimeException exception) {
+                    chunkRejected++;
+                    if (chunkErrors.size() < MAX_REPORTED_ERRORS) {
+                        chunkErrors.add("Row " + (firstRow + i) + ": " + exception.getMessage());
+                    }
+                }
+            }
+            return new ParsedChunk(assets, chunkErrors, chunkRejected);
+        }
+
+        private Asset parseRow(String[] row, int[] mapping) {
+            String name = cell(row, mapping[NAME]);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("name is required");
+            }
+            AssetType type = parseType(cell(row, mapping[TYPE]));
+            BigDecimal purchasePrice = parseAmount(cell(row, mapping[PURCHASE_PRICE]), "purchase price");
+            Date purchaseDate = parseDate(cell(row, mapping[PURCHASE_DATE]));
+            BigDecimal currentValue = parseAmount(cell(row, mapping[CURRENT_VALUE]), "current value");
+            Currency currency = parseCurrency(cell(row, mapping[CURRENCY]));
+            return new Asset(userId, name, type, purchasePrice, purchaseDate, currentValue, currency);
+        }
+
+        private Currency parseCurrency(String value) {
+            String code = value.toUpperCase(Locale.ROOT);
+            if (!rates.hasRate(code)) {
+                throw new IllegalArgumentException("unknown currency '" + value + "'");
+            }
+            return Currency.getInstance(code);
+        }
+    }
+
+    /**
+     * Maps header names to column positions
+     * @return the position of each known column, or null if the row is not a header
+     */
+    private static int[] headerColumns(String[] row) {
+        int[] mapping = new int[COLUMNS.length];
+        Arrays.fill(mapping, -1);
+        boolean header = false;
+        for (int i = 0; i < row.length; i++) {
+            String name = row[i] == null ? "" : row[i].trim().toLowerCase(Locale.ROOT).replace(' ', '_');
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equals(name)) {
+                    mapping[column] = i;
+                    header = true;
+                }
+            }
+        }
+        if (!header) {
+            return null;
+        }
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (mapping[column] < 0 && column != PURCHASE_DATE) {
+                throw new IllegalArgumentException("Missing column '" + COLUMNS[column] + "' in header");
+            }
+        }
+        return mapping;
+    }
+
+    private static String cell(String[] row, int column) {
+        if (column < 0 || column >= row.length || row[column] == null) {
+            return "";
+        }
+        return row[column].trim();
+    }
+
+    private static boolean isBlank(String[] row) {
+        for (String cell : row) {
+            if (cell != null && !cell.isBlank()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AssetType parseType(String value) {
+        try {
+            return AssetType.valueOf(value.toUpperCase(Locale.ROOT).replace(' ', '_').replace('-', '_'));
+        }
+        catch (IllegalArgumentException exception) {
+            throw new IllegalArgumentException("unknown asset type '" + value + "'");
+        }
+    }
+
+    private static BigDecimal parseAmount(String value, String field) {
+        String plain = value.replace(" ", "");
+        if (plain.indexOf(',') >= 0) {
+            if (!GROUPED_AMOUNT.matcher(plain).matches()) {
+                throw new IllegalArgumentException("invalid " + field + " '" + value + "', use a point for decimals and commas only between thousands");
+            }
+            plain = plain.replace(",", "");
+        }
+        BigDecimal amount;
+        try {
+            amount = new BigDecimal(plain);
+        }
+        catch (NumberFormatException exception) {
+            throw new IllegalArgumentException("invalid " + field + " '" + value + "'");
+        }
+        if (amount.signum() < 0) {
+            throw new IllegalArgumentException(field + " cannot be negative");
+        }
+        return amount;
+    }
+
+    /**
+     * Parses a purchase date; a missing date means today, as in the add asset dialog
+     */
+    private static Date parseDate(String value) {
+        if (value.isEmpty()) {
+            return new Date();
+        }
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return Date.from(LocalDate.parse(value, format).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            }
+            catch (DateTimeParseException ignored) {
+                // try the next format
+            }
+        }
+        throw new IllegalArgumentException("invalid purchase date '" + value + "'");
+    }
+}
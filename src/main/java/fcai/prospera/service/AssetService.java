@@ -1,29 +1,62 @@
 package fcai.prospera.service;
 
+import fcai.prospera.CurrencyConversion;
 import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetRecord;
 import fcai.prospera.model.AssetType;
+import fcai.prospera.model.ValuationPoint;
 import fcai.prospera.repository.AssetRepository;
-import fcai.prospera.CurrencyConversion; // Import the conversion utility
+import fcai.prospera.repository.HoldingsHistoryStore;
+import fcai.prospera.repository.ValuationHistoryStore;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 /**
  * Handles the business logic for assets
  */
 public class AssetService {
+    /**
+     * Notified after each operation that changed assets, with one event per changed asset, on the thread that made
+     * the changes; e.g. to update a view or a cache without reloading everything
+     */
+    public interface AssetChangeListener {
+        void assetsChanged(List<AssetChangeEvent> events);
+    }
+
     private final AssetRepository assetRepo;
+    private final NetWorthAggregator netWorthAggregator;
+    private final ValuationHistoryStore valuationHistory;
+    private final HoldingsHistoryStore holdingsHistory;
+    private final List<AssetChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 
     /**
      *
      * @param assetRepo : the asset repository
      */
     public AssetService(AssetRepository assetRepo) {
+        this(assetRepo, null, null);
+    }
+
+    /**
+     * @param assetRepo : the asset repository
+     * @param valuationHistory : the store asset values are recorded in, or null if history is not kept
+     * @param holdingsHistory : the store users' holdings are recorded in, or null if history is not kept
+     */
+    public AssetService(AssetRepository assetRepo, ValuationHistoryStore valuationHistory, HoldingsHistoryStore holdingsHistory) {
         if (assetRepo == null) {
             throw new IllegalArgumentException("AssetRepository cannot be null.");
         }
         this.assetRepo = assetRepo;
+        this.netWorthAggregator = new NetWorthAggregator(assetRepo);
+        this.valuationHistory = valuationHistory;
+        this.holdingsHistory = holdingsHistory;
     }
 
     /**
@@ -46,6 +79,31 @@ public class AssetService {
         return assetRepo.getUserAssets(userId);
     }
 
+    /**
+     * Gets a user's assets bought between two days, in purchase date order
+     * @param userId : the user ID
+     * @param from : the first purchase day, inclusive, or null for no lower bound
+     * @param to : the last purchase day, inclusive, or null for no upper bound
+     * @return a list of assets
+     */
+    public List<Asset> getAssetsPurchasedBetween(UUID userId, LocalDate from, LocalDate to) {
+        if (userId == null) return Collections.emptyList();
+        ZoneId zone = ZoneId.systemDefault();
+        return assetRepo.getUserAssetsPurchasedBetween(userId,
+                from != null ? from.atStartOfDay(zone).toInstant() : null,
+                to != null ? to.plusDays(1).atStartOfDay(zone).toInstant() : null);
+    }
+
+    /**
+     * Gets immutable records of all assets for a user, for calculations that don't need JavaFX properties
+     * @param userId : the user ID
+     * @return a list of asset records
+     */
+    public List<AssetRecord> getAssetRecords(UUID userId) {
+        if (userId == null) return Collections.emptyList();
+        return assetRepo.getUserAssetRecords(userId);
+    }
+
     /**
      * Adds an asset
      * @param asset : the asset to add
@@ -53,7 +111,16 @@ public class AssetService {
      */
     public boolean addAsset(Asset asset) {
         if (asset == null) return false;
-        return assetRepo.addAsset(asset);
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = List.of();
+        try {
+            boolean added = assetRepo.addAsset(asset);
+            if (added) events = List.of(AssetChangeEvent.added(asset.toRecord()));
+            return added;
+        }
+        finally {
+            publish(events);
+        }
     }
 
     /**
@@ -63,7 +130,17 @@ public class AssetService {
      */
     public boolean removeAsset(UUID assetId) {
         if (assetId == null) return false;
-        return assetRepo.removeAsset(assetId);
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = List.of();
+        try {
+            AssetRecord before = recordOf(assetId);
+            boolean removed = assetRepo.removeAsset(assetId);
+            if (removed && before != null) events = List.of(AssetChangeEvent.removed(before));
+            return removed;
+        }
+        finally {
+            publish(events);
+        }
     }
 
     /**
@@ -76,18 +153,24 @@ public class AssetService {
         if (assetIdToUpdate == null || newAssetData == null) {
             return false;
         }
-        Asset assetToUpdate = assetRepo.getAssetById(assetIdToUpdate);
-        if (assetToUpdate != null) {
-            assetToUpdate.setUserId(newAssetData.getUserId());
-            assetToUpdate.setName(newAssetData.getName());
-            assetToUpdate.setType(newAssetData.getType());
-            assetToUpdate.setPurchasePrice(newAssetData.getPurchasePrice());
-            assetToUpdate.setPurchaseDate(newAssetData.getPurchaseDate());
-            assetToUpdate.setCurrentValue(newAssetData.getCurrentValue());
-            assetToUpdate.setCurrency(newAssetData.getCurrency());
-            return assetRepo.updateAsset(assetIdToUpdate, assetToUpdate);
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = List.of();
+        try {
+            Asset assetToUpdate = assetRepo.getAssetById(assetIdToUpdate);
+            if (assetToUpdate != null) {
+                AssetRecord before = assetToUpdate.toRecord();
+                // the stored asset is left untouched until the repository replaces it, so it can still tell who owned it
+                Asset updatedAsset = new Asset(assetIdToUpdate, newAssetData.getUserId(), newAssetData.getName(), newAssetData.getType(),
+                        newAssetData.getPurchasePrice(), newAssetData.getPurchaseDate(), newAssetData.getCurrentValue(), newAssetData.getCurrency());
+                boolean updated = assetRepo.updateAsset(assetIdToUpdate, updatedAsset);
+                if (updated) events = List.of(AssetChangeEvent.changed(before, updatedAsset.toRecord()));
+                return updated;
+            }
+            return false;
+        }
+        finally {
+            publish(events);
         }
-        return false;
     }
 
     /**
@@ -98,7 +181,156 @@ public class AssetService {
      */
     public boolean updateAssetCurrentValue(UUID assetId, BigDecimal newValue) {
         if (assetId == null || newValue == null) return false;
-        return assetRepo.updateCurrentValue(assetId, newValue);
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = List.of();
+        try {
+            AssetRecord before = recordOf(assetId);
+            boolean updated = assetRepo.updateCurrentValue(assetId, newValue);
+            if (updated && before != null) events = List.of(AssetChangeEvent.changed(before, before.withCurrentValue(newValue)));
+            return updated;
+        }
+        finally {
+            publish(events);
+        }
+    }
+
+    /**
+     * Runs several asset changes as one batch that is persisted once, e.g. calls to this service's mutating methods
+     * @param changes : the changes to run
+     */
+    public void batch(Runnable changes) {
+        if (changes == null) return;
+        assetRepo.batch(changes);
+    }
+
+    /**
+     * Adds several assets in one batch
+     * @param assets : the assets to add
+     * @return whether each asset was added, by asset id
+     */
+    public Map<UUID, Boolean> addAssets(Collection<Asset> assets) {
+        if (assets == null || assets.isEmpty()) return Collections.emptyMap();
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = new ArrayList<>();
+        try {
+            Map<UUID, Boolean> results = assetRepo.addAssets(assets);
+            for (Asset asset : assets) {
+                if (asset != null && Boolean.TRUE.equals(results.get(asset.getId()))) {
+                    events.add(AssetChangeEvent.added(asset.toRecord()));
+                }
+            }
+            return results;
+        }
+        finally {
+            publish(events);
+        }
+    }
+
+    /**
+     * Removes several assets in one batch
+     * @param assetIds : the asset IDs
+     * @return whether each asset was removed, by asset id
+     */
+    public Map<UUID, Boolean> removeAssets(Collection<UUID> assetIds) {
+        if (assetIds == null || assetIds.isEmpty()) return Collections.emptyMap();
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = new ArrayList<>();
+        try {
+            Map<UUID, AssetRecord> befores = recordsOf(assetIds);
+            Map<UUID, Boolean> results = assetRepo.removeAssets(assetIds);
+            results.forEach((assetId, removed) -> {
+                AssetRecord before = befores.get(assetId);
+                if (removed && before != null) events.add(AssetChangeEvent.removed(before));
+            });
+            return results;
+        }
+        finally {
+            publish(events);
+        }
+    }
+
+    /**
+     * Updates the current values of several assets in one batch
+     * @param newValues : the new value of each asset, by asset id
+     * @return whether each asset was updated, by asset id
+     */
+    public Map<UUID, Boolean> updateAssetCurrentValues(Map<UUID, BigDecimal> newValues) {
+        if (newValues == null || newValues.isEmpty()) return Collections.emptyMap();
+        netWorthAggregator.beginChange();
+        List<AssetChangeEvent> events = new ArrayList<>();
+        try {
+            Map<UUID, AssetRecord> befores = recordsOf(newValues.keySet());
+            Map<UUID, Boolean> results = assetRepo.updateCurrentValues(newValues);
+            results.forEach((assetId, updated) -> {
+                AssetRecord before = befores.get(assetId);
+                if (updated && before != null) events.add(AssetChangeEvent.changed(before, before.withCurrentValue(newValues.get(assetId))));
+            });
+            return results;
+        }
+        finally {
+            publish(events);
+        }
+    }
+
+    private AssetRecord recordOf(UUID assetId) {
+        Asset asset = assetRepo.getAssetById(assetId);
+        return asset != null ? asset.toRecord() : null;
+    }
+
+    private Map<UUID, AssetRecord> recordsOf(Collection<UUID> assetIds) {
+        Map<UUID, AssetRecord> records = new HashMap<>();
+        for (UUID assetId : assetIds) {
+            AssetRecord record = assetId != null ? recordOf(assetId) : null;
+            if (record != null) {
+                records.put(assetId, record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Registers a listener to be notified of asset changes made through this service
+     * @param listener : the listener
+     */
+    public void addAssetChangeListener(AssetChangeListener listener) {
+        if (listener != null && !changeListeners.contains(listener)) {
+            changeListeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #addAssetChangeListener(AssetChangeListener)}
+     * @param listener : the listener
+     */
+    public void removeAssetChangeListener(AssetChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Ends an operation started with {@link NetWorthAggregator#beginChange()}, updating the net worth cache with its
+     * changes, and notifies the listeners
+     */
+    private void publish(List<AssetChangeEvent> events) {
+        List<AssetChangeEvent> published = Collections.unmodifiableList(events);
+        netWorthAggregator.endChange(published);
+        if (published.isEmpty()) return;
+        for (AssetChangeListener listener : changeListeners) {
+            listener.assetsChanged(published);
+        }
+    }
+
+    /**
+     * Gets the recorded values of an asset over a time range
+     * @param assetId : the asset ID
+     * @param from : start of the range, inclusive, or null for the beginning
+     * @param to : end of the range, inclusive, or null for now
+     * @param resolution : if not null, at most one point per interval of this length is returned, for charts
+     * @return the points in time order, empty if no history is kept
+     */
+    public List<ValuationPoint> getValuationHistory(UUID assetId, Instant from, Instant to, Duration resolution) {
+        if (assetId == null || valuationHistory == null) return Collections.emptyList();
+        return resolution != null ? valuationHistory.getDownsampledHistory(assetId, from, to, resolution)
+                : valuationHistory.getHistory(assetId, from, to);
     }
 
     /**
@@ -135,6 +367,8 @@ public class AssetService {
 
     /**
      * Calculates the total net worth of a user's assets, converted to a specified base currency.
+     * The user's asset values are summed per currency and each sum is converted once; results are
+     * cached until the user's assets or the conversion rates change.
      *
      * @param userId The ID of the user.
      * @param baseCurrencyCode The currency code (e.g., "USD", "EUR") to convert all asset values to.
@@ -145,38 +379,48 @@ public class AssetService {
         if (userId == null || baseCurrencyCode == null || baseCurrencyCode.trim().isEmpty()) {
             return BigDecimal.ZERO;
         }
-        List<Asset> userAssets = assetRepo.getUserAssets(userId); // Get assets for the user
+        return netWorthAggregator.getNetWorthInBase(userId, baseCurrencyCode.trim());
+    }
 
-        if (userAssets == null || userAssets.isEmpty()) {
-            return BigDecimal.ZERO;
+    /**
+     * Drops the cached net worth of a user, e.g. after logout
+     *
+     * @param userId The ID of the user.
+     */
+    public void evictNetWorth(UUID userId) {
+        if (userId != null) {
+            netWorthAggregator.evict(userId);
         }
+    }
 
-        BigDecimal totalNetWorthInBase = BigDecimal.ZERO;
-        for (Asset asset : userAssets) {
-            if (asset != null && asset.getCurrentValue() != null && asset.getCurrency() != null) {
-                BigDecimal valueInBase;
-                String assetCurrencyCode = asset.getCurrency().getCurrencyCode();
-
-                if (assetCurrencyCode.equalsIgnoreCase(baseCurrencyCode)) {
-                    valueInBase = asset.getCurrentValue();
-                } else {
-                    try {
-                        valueInBase = CurrencyConversion.convert(
-                                assetCurrencyCode,
-                                baseCurrencyCode,
-                                asset.getCurrentValue()
-                        );
-                    } catch (IllegalArgumentException e) {
-                        System.err.println("Could not convert asset '" + asset.getName() +
-                                "' from " + assetCurrencyCode + " to " + baseCurrencyCode +
-                                ": " + e.getMessage());
-                        valueInBase = BigDecimal.ZERO;
-                    }
-                }
-                totalNetWorthInBase = totalNetWorthInBase.add(valueInBase);
-            }
+    /**
+     * Calculates the total net worth a user had at a point in time, converted to a base currency.
+     * The holdings come from the user's history; they are converted at the current rates, since past rates are not kept.
+     *
+     * @param userId The ID of the user.
+     * @param baseCurrencyCode The currency code to convert all asset values to.
+     * @param asOf The point in time.
+     * @return The net worth at that time, or BigDecimal.ZERO if no history is kept or the user's history starts later.
+     */
+    public BigDecimal calculateUserNetWorthInBaseAsOf(UUID userId, String baseCurrencyCode, Instant asOf) {
+        if (userId == null || baseCurrencyCode == null || baseCurrencyCode.trim().isEmpty() || asOf == null || holdingsHistory == null) {
+            return BigDecimal.ZERO;
         }
-        return totalNetWorthInBase;
+        return NetWorthAggregator.convert(holdingsHistory.getTotalsByCurrencyAt(userId, asOf), baseCurrencyCode.trim(),
+                CurrencyConversion.getRateTable());
+    }
+
+    /**
+     * Calculates the percentage of each asset type in a user's assets at a point in time, from the user's history.
+     * WARNING: Like getAssetDistributionForUser, this method does NOT perform currency conversion.
+     *
+     * @param userId The ID of the user.
+     * @param asOf The point in time.
+     * @return A map of asset types to their percentages, empty if no history is kept or the user's history starts later.
+     */
+    public Map<AssetType, BigDecimal> getAssetDistributionForUserAsOf(UUID userId, Instant asOf) {
+        if (userId == null || asOf == null || holdingsHistory == null) return Collections.emptyMap();
+        return holdingsHistory.getDistributionAt(userId, asOf);
     }
 
     /**
@@ -2,19 +2,38 @@ package fcai.prospera.service;
 
 import fcai.prospera.model.User;
 import fcai.prospera.repository.UserRepository;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Handles authentication logic
  */
 public class AuthService {
+    /**
+     * Notified when a user logs in or out, e.g. to load and release the user's data
+     */
+    public interface SessionListener {
+        void loggedIn(User user);
+        void loggedOut(User user);
+    }
+
     private final UserRepository userRepo;
+    private final List<SessionListener> sessionListeners = new CopyOnWriteArrayList<>();
     private User currentUser;
 
     public AuthService(UserRepository userRepo) {
         this.userRepo = userRepo;
     }
 
+    /**
+     * Registers a listener to be notified of logins and logouts
+     * @param listener : the listener
+     */
+    public void addSessionListener(SessionListener listener) {
+        sessionListeners.add(listener);
+    }
+
     /**
      * logs in user and sets current user
      * @param username : entered username
@@ -23,6 +42,11 @@ public class AuthService {
      */
     public User login(String username, String password) {
         this.currentUser = userRepo.getUserByUsername(username);
+        if (currentUser != null) {
+            for (SessionListener listener : sessionListeners) {
+                listener.loggedIn(currentUser);
+            }
+        }
         return currentUser;
     }
 
@@ -41,7 +65,13 @@ public class AuthService {
      * logs out current user
      */
     public void logout() {
+        User user = currentUser;
         this.currentUser = null;
+        if (user != null) {
+            for (SessionListener listener : sessionListeners) {
+                listener.loggedOut(user);
+            }
+        }
     }
 
     /**
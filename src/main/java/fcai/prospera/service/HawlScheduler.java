@@ -0,0 +1,365 @@
+package fcai.prospera.service;
+
+import fcai.prospera.model.Asset;
+import fcai.prospera.model.AssetRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells listeners when an asset of a tracked user completes its hawl.
+ * <p>
+ * The upcoming hawl dates of a user are read once from the purchase date index when the user is tracked, and are
+ * kept in a priority queue ordered by due time. Asset changes re-plan only the assets they touch, and a single timer
+ * wakes up for the earliest due asset, so the repository is never polled.
+ * <p>
+ * The last hawl day reported to each user is saved, so hawls completed while the app was closed or the user was
+ * logged out are reported as soon as the user is tracked again.
+ */
+public class HawlScheduler {
+    /**
+     * An asset that completed its hawl
+     * @param userId : the owner of the asset
+     * @param assetId : the asset id
+     * @param assetName : the asset name
+     * @param hawlDate : the day the hawl completed
+     */
+    public record HawlNotice(UUID userId, UUID assetId, String assetName, LocalDate hawlDate) { }
+
+    /**
+     * Notified through the delivery executor with the assets whose hawl completed at the same time
+     */
+    public interface HawlListener {
+        void hawlReached(List<HawlNotice> notices);
+    }
+
+    /**
+     * A planned notice; planned entries replaced or cancelled stay in the queue and are skipped when they come up
+     */
+    private record Planned(Instant dueAt, HawlNotice notice) { }
+
+    // the timer is re-armed at least this often, so a change of the system clock delays a notice by at most this long
+    private static final Duration MAX_WAIT = Duration.ofHours(1);
+
+    private final ZakatAndComplianceService zakatService;
+    private final Executor delivery;
+    private final Clock clock;
+    private final Path notifiedStorage;
+    private final List<HawlListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final PriorityQueue<Planned> queue = new PriorityQueue<>(Comparator.comparing(Planned::dueAt));
+    private final Map<UUID, Planned> plannedByAsset = new HashMap<>();
+    private final Set<UUID> trackedUsers = new HashSet<>();
+    // the last hawl day reported to each user, saved in notifiedStorage
+    private final Map<UUID, LocalDate> lastNotified = new HashMap<>();
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> wakeUp;
+
+    /**
+     * @param zakatService : the service giving the hawl dates
+     * @param assetService : the service whose asset changes re-plan the notices
+     * @param delivery : runs the listener calls, e.g. {@code Platform::runLater} to deliver them on the JavaFX application thread
+     * @param notifiedPath : the file keeping the last hawl day reported to each user
+     */
+    public HawlScheduler(ZakatAndComplianceService zakatService, AssetService assetService, Executor delivery, String notifiedPath) {
+        this(zakatService, assetService, delivery, notifiedPath, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param zakatService : the service giving the hawl dates
+     * @param assetService : the service whose asset changes re-plan the notices
+     * @param delivery : runs the listener calls
+     * @param notifiedPath : the file keeping the last hawl day reported to each user
+     * @param clock : the clock giving the current time and the time zone of hawl days
+     */
+    public HawlScheduler(ZakatAndComplianceService zakatService, AssetService assetService, Executor delivery,
+                         String notifiedPath, Clock clock) {
+        this.zakatService = zakatService;
+        this.delivery = delivery;
+        this.clock = clock;
+        this.notifiedStorage = Path.of(notifiedPath);
+        loadNotified();
+        assetService.addAssetChangeListener(this::applyAssetChanges);
+    }
+
+    /**
+     * Registers a listener for hawl notices
+     * @param listener : the listener
+     */
+    public void addHawlListener(HawlListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #addHawlListener(HawlListener)}
+     * @param listener : the listener
+     */
+    public void removeHawlListener(HawlListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts the timer
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hawl-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rearm();
+    }
+
+    /**
+     * Stops the timer; planned notices are kept until it is started again
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+            wakeUp = null;
+        }
+    }
+
+    /**
+     * Reports the assets of the user whose hawl completed since the last day reported to them, up to today,
+     * then plans a notice for every asset whose hawl has not completed yet.
+     * A user never reported to before is told only about the hawls completing today.
+     * @param userId : the user id
+     */
+    public void track(UUID userId) {
+        if (userId == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now(clock);
+        LocalDate firstMissed;
+        synchronized (this) {
+            if (!trackedUsers.add(userId)) {
+                return;
+            }
+            LocalDate notified = lastNotified.get(userId);
+            firstMissed = notified != null ? notified.plusDays(1) : today;
+        }
+        List<Asset> missed = zakatService.getAssetsWithHawlBetween(userId, firstMissed, today);
+        List<Asset> upcoming = zakatService.getAssetsWithHawlBetween(userId, today.plusDays(1), null);
+        List<HawlNotice> due = new ArrayList<>();
+        synchronized (this) {
+            if (!trackedUsers.contains(userId)) {
+                return;
+            }
+            ZoneId zone = clock.getZone();
+            for (Asset asset : missed) {
+                Planned planned = planned(asset.toRecord(), zone);
+                if (planned != null) {
+                    due.add(planned.notice());
+                }
+            }
+            for (Asset asset : upcoming) {
+                Planned planned = planned(asset.toRecord(), zone);
+                if (planned != null) {
+                    enqueue(planned);
+                }
+            }
+            rearm();
+            markNotified(userId, today);
+        }
+        deliver(due);
+    }
+
+    /**
+     * Drops the planned notices of the user
+     * @param userId : the user id
+     */
+    public synchronized void untrack(UUID userId) {
+        if (userId == null || !trackedUsers.remove(userId)) {
+            return;
+        }
+        plannedByAsset.values().removeIf(planned -> planned.notice().userId().equals(userId));
+        queue.removeIf(planned -> planned.notice().userId().equals(userId));
+        rearm();
+    }
+
+    /**
+     * Re-plans the notices of the changed assets. A notice still pending is kept if an edit moves its hawl date
+     * into the past, so that the crossing is reported right away; assets added with a completed hawl are not reported.
+     * @param events : the asset changes
+     */
+    private synchronized void applyAssetChanges(List<AssetChangeEvent> events) {
+        ZoneId zone = clock.getZone();
+        Instant now = clock.instant();
+        for (AssetChangeEvent event : events) {
+            if (event.type() == AssetChangeEvent.Type.VALUE_CHANGED) {
+                continue;
+            }
+            boolean wasPending = event.before() != null && plannedByAsset.remove(event.before().id()) != null;
+            AssetRecord after = event.after();
+            if (after != null && trackedUsers.contains(after.userId())) {
+                Planned planned = planned(after, zone);
+                if (planned != null && (wasPending || planned.dueAt().isAfter(now))) {
+                    enqueue(planned);
+                }
+            }
+        }
+        rearm();
+    }
+
+    /**
+     * @return the notice for the asset's hawl date, or null if the asset has no purchase date
+     */
+    private static Planned planned(AssetRecord asset, ZoneId zone) {
+        LocalDate hawlDate = ZakatAndComplianceService.hawlDateOf(asset.purchaseDate(), zone);
+        if (hawlDate == null) {
+            return null;
+        }
+        return new Planned(hawlDate.atStartOfDay(zone).toInstant(), new HawlNotice(asset.userId(), asset.id(), asset.name(), hawlDate));
+    }
+
+    /**
+     * Queues a notice, replacing the one planned for the same asset
+     */
+    private void enqueue(Planned planned) {
+        plannedByAsset.put(planned.notice().assetId(), planned);
+        queue.add(planned);
+    }
+
+    /**
+     * Drops stale entries from the queue and schedules the timer for the earliest planned notice
+     */
+    private void rearm() {
+        if (queue.size() > 2 * plannedByAsset.size() + 64) {
+            queue.clear();
+            queue.addAll(plannedByAsset.values());
+        }
+        while (!queue.isEmpty() && plannedByAsset.get(queue.peek().notice().assetId()) != queue.peek()) {
+            queue.poll();
+        }
+        if (timer == null) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        if (queue.isEmpty()) {
+            return;
+        }
+        long delay = Duration.between(clock.instant(), queue.peek().dueAt()).toMillis();
+        wakeUp = timer.schedule(this::fire, Math.max(0, Math.min(delay, MAX_WAIT.toMillis())), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes the notices that are due and hands them to the listeners
+     */
+    private void fire() {
+        List<HawlNotice> due = new ArrayList<>();
+        synchronized (this) {
+            Instant now = clock.instant();
+            while (!queue.isEmpty() && !queue.peek().dueAt().isAfter(now)) {
+                Planned planned = queue.poll();
+                if (plannedByAsset.remove(planned.notice().assetId(), planned)) {
+                    due.add(planned.notice());
+                }
+            }
+            rearm();
+            for (HawlNotice notice : due) {
+                markNotified(notice.userId(), notice.hawlDate());
+            }
+        }
+        deliver(due);
+    }
+
+    /**
+     * Hands the notices to the listeners through the delivery executor
+     */
+    private void deliver(List<HawlNotice> due) {
+        if (due.isEmpty()) {
+            return;
+        }
+        List<HawlNotice> notices = List.copyOf(due);
+        delivery.execute(() -> {
+            for (HawlListener listener : listeners) {
+                listener.hawlReached(notices);
+            }
+        });
+    }
+
+    /**
+     * Records that the user's hawls up to the given day were reported, saving the change
+     */
+    private void markNotified(UUID userId, LocalDate day) {
+        LocalDate notified = lastNotified.get(userId);
+        if (notified != null && !day.isAfter(notified)) {
+            return;
+        }
+        lastNotified.put(userId, day);
+        saveNotified();
+    }
+
+    /**
+     * Reads the last reported hawl day of each user, one "userId,day" line per user
+     */
+    private void loadNotified() {
+        if (!Files.exists(notifiedStorage)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(notifiedStorage)) {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    continue;
+                }
+                try {
+                    lastNotified.put(UUID.fromString(line.substring(0, comma).trim()), LocalDate.parse(line.substring(comma + 1).trim()));
+                }
+                catch (IllegalArgumentException | DateTimeParseException exception) {
+                    System.err.println("Skipping bad line in " + notifiedStorage + ": " + line);
+                }
+            }
+        }
+        catch (IOException exception) {
+            System.err.println("Error loading " + notifiedStorage + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Rewrites the file of last reported hawl days through a temporary file, so it is never left half written
+     */
+    private void saveNotified() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<UUID, LocalDate> entry : lastNotified.entrySet()) {
+            lines.add(entry.getKey() + "," + entry.getValue());
+        }
+        try {
+            Path parent = notifiedStorage.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = notifiedStorage.resolveSibling(notifiedStorage.getFileName() + ".tmp");
+            Files.write(temp, lines);
+            Files.move(temp, notifiedStorage, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exception) {
+            System.err.println("Error saving " + notifiedStorage + ": " + exception.getMessage());
+        }
+    }
+}
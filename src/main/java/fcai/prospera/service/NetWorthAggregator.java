@@ -0,0 +1,154 @@
+package fcai.prospera.service;
+
+import fcai.prospera.CurrencyConversion;
+import fcai.prospera.ExchangeRateTable;
+import fcai.prospera.model.AssetRecord;
+import fcai.prospera.repository.AssetRepository;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Computes users' net worth in a base currency by converting per-currency sums rather than individual assets.
+ * <p>
+ * The raw per-currency sums of a user are cached and kept up to date as the user's assets change, and converted
+ * totals are cached per base currency for the conversion rates version they were computed with, so switching the
+ * display currency only converts once per held currency.
+ * <p>
+ * Every asset change is bracketed by {@link #beginChange()} and {@link #endChange(List)}. Sums read from the
+ * repository while a change is in flight may or may not include it, so they are used but not cached.
+ */
+public class NetWorthAggregator {
+    /**
+     * The cached sums of a single user
+     */
+    private static final class UserTotals {
+        private final Map<Currency, BigDecimal> byCurrency;
+        private final Map<String, BigDecimal> inBase = new HashMap<>();
+        private long ratesVersion;
+
+        UserTotals(Map<Currency, BigDecimal> byCurrency, long ratesVersion) {
+            this.byCurrency = byCurrency;
+            this.ratesVersion = ratesVersion;
+        }
+    }
+
+    private final AssetRepository assetRepo;
+    private final Map<UUID, UserTotals> cache = new HashMap<>();
+    private int changesInFlight;
+
+    /**
+     * @param assetRepo : the asset repository the sums are read from
+     */
+    public NetWorthAggregator(AssetRepository assetRepo) {
+        this.assetRepo = assetRepo;
+    }
+
+    /**
+     * Gets the total value of a user's assets converted to a base currency
+     * @param userId : the user id
+     * @param baseCurrencyCode : the currency code to convert to
+     * @return the converted total
+     */
+    public synchronized BigDecimal getNetWorthInBase(UUID userId, String baseCurrencyCode) {
+        ExchangeRateTable rates = CurrencyConversion.getRateTable();
+        UserTotals totals = getTotals(userId);
+        if (totals.ratesVersion != rates.getVersion()) {
+            totals.inBase.clear();
+            totals.ratesVersion = rates.getVersion();
+        }
+
+        String baseCode = baseCurrencyCode.toUpperCase();
+        return totals.inBase.computeIfAbsent(baseCode, code -> convert(totals.byCurrency, code, rates));
+    }
+
+    /**
+     * Gets the raw sum of a user's asset values per currency
+     * @param userId : the user id
+     * @return a copy of the per-currency sums
+     */
+    public synchronized Map<Currency, BigDecimal> getTotalsByCurrency(UUID userId) {
+        return new HashMap<>(getTotals(userId).byCurrency);
+    }
+
+    /**
+     * Drops the cached sums of a user, e.g. after logout; they are read from the repository again when next needed
+     * @param userId : the user id
+     */
+    public synchronized void evict(UUID userId) {
+        cache.remove(userId);
+    }
+
+    /**
+     * Marks the start of an asset change, before the repository is changed
+     */
+    synchronized void beginChange() {
+        changesInFlight++;
+    }
+
+    /**
+     * Marks the end of an asset change started with {@link #beginChange()}, updating the cached sums of the affected
+     * users without reading their assets again
+     * @param events : the changes made, empty if nothing changed
+     */
+    synchronized void endChange(List<AssetChangeEvent> events) {
+        for (AssetChangeEvent event : events) {
+            adjust(event.before(), -1);
+            adjust(event.after(), 1);
+        }
+        changesInFlight--;
+    }
+
+    private void adjust(AssetRecord asset, int sign) {
+        if (asset == null || asset.userId() == null || asset.currency() == null || asset.currentValue() == null) {
+            return;
+        }
+        UserTotals totals = cache.get(asset.userId());
+        if (totals == null) {
+            return;
+        }
+
+        BigDecimal value = sign < 0 ? asset.currentValue().negate() : asset.currentValue();
+        totals.byCurrency.merge(asset.currency(), value, BigDecimal::add);
+        totals.inBase.clear();
+    }
+
+    private UserTotals getTotals(UUID userId) {
+        UserTotals totals = cache.get(userId);
+        if (totals != null) {
+            return totals;
+        }
+
+        // no change can begin while the lock is held, but one that began earlier may be halfway through the repository
+        totals = new UserTotals(new HashMap<>(assetRepo.getUserTotalsByCurrency(userId)), CurrencyConversion.getVersion());
+        if (changesInFlight == 0) {
+            cache.put(userId, totals);
+        }
+        return totals;
+    }
+
+    /**
+     * Converts per-currency sums to a base currency with a single rates snapshot
+     */
+    static BigDecimal convert(Map<Currency, BigDecimal> byCurrency, String baseCode, ExchangeRateTable rates) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Map.Entry<Currency, BigDecimal> entry : byCurrency.entrySet()) {
+            String code = entry.getKey().getCurrencyCode();
+            if (code.equals(baseCode)) {
+                total = total.add(entry.getValue());
+                continue;
+            }
+            try {
+                total = total.add(rates.convert(code, baseCode, entry.getValue()));
+            }
+            catch (IllegalArgumentException e) {
+                System.err.println("Could not convert assets held in " + code + " to " + baseCode + ": " + e.getMessage());
+            }
+        }
+        return total;
+    }
+}
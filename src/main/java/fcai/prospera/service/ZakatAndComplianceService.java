@@ -1,10 +1,17 @@
 package fcai.prospera.service;
 
+import fcai.prospera.CurrencyConversion;
+import fcai.prospera.ExchangeRateTable;
 import fcai.prospera.model.*;
 import fcai.prospera.repository.AssetRepository;
 import fcai.prospera.repository.UserRepository;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.UUID;
 
@@ -13,47 +20,240 @@ import java.util.UUID;
  */
 public class ZakatAndComplianceService {
     private final AssetRepository assetRepo;
+    private final Clock clock;
+    // hawl dates by asset id, per user; only kept when asset changes are followed, to stay up to date
+    private final Map<UUID, Map<UUID, LocalDate>> hawlDatesByUser = new HashMap<>();
+    private final boolean cachingHawlDates;
 
-    static private final double GOLD_NISAB_WEIGHT = 87.48;
-    static private final double SILVER_NISAB_WEIGHT = 612.36;
-    static private final double ZAKAT_PERCENTAGE = 2.5 / 100.0;
+    /**
+     * The precision of every zakat amount
+     */
+    static public final MathContext ZAKAT_PRECISION = MathContext.DECIMAL128;
+
+    static private final BigDecimal GOLD_NISAB_WEIGHT = new BigDecimal("87.48");
+    static private final BigDecimal SILVER_NISAB_WEIGHT = new BigDecimal("612.36");
+    static private final BigDecimal ZAKAT_RATE = new BigDecimal("0.025");
+    static private final int HAWL_DAYS = 354; // one lunar year
 
     /**
      * The constructor for ZakatAndComplianceService
      * @param assetRepo : the asset repository from which asset data will be fetched
      */
     public ZakatAndComplianceService(AssetRepository assetRepo) {
+        this(assetRepo, null, Clock.systemDefaultZone());
+    }
+
+    /**
+     * The constructor for ZakatAndComplianceService, caching hawl dates until the asset service reports that they changed
+     * @param assetRepo : the asset repository from which asset data will be fetched
+     * @param assetService : the asset service whose changes are followed, or null to compute hawl dates on every call
+     */
+    public ZakatAndComplianceService(AssetRepository assetRepo, AssetService assetService) {
+        this(assetRepo, assetService, Clock.systemDefaultZone());
+    }
+
+    /**
+     * The constructor for ZakatAndComplianceService
+     * @param assetRepo : the asset repository from which asset data will be fetched
+     * @param assetService : the asset service whose changes are followed, or null to compute hawl dates on every call
+     * @param clock : the clock giving the current day and time zone
+     */
+    public ZakatAndComplianceService(AssetRepository assetRepo, AssetService assetService, Clock clock) {
         this.assetRepo = assetRepo;
+        this.clock = clock;
+        this.cachingHawlDates = assetService != null;
+        if (assetService != null) {
+            assetService.addAssetChangeListener(this::applyAssetChanges);
+        }
     }
 
     /**
-     * This method handles zakat calculation
-     * @param nisab : the nisab value, which is the minimum amount of assets required to be eligible for zakat
-     * @param selectedAssets : the list of assets selected by the user to apply zakat on
-     * @return the zakat amount
+     * This method handles zakat calculation at the current exchange rates
+     * @param selectedAssets : the assets selected by the user to apply zakat on, in any currencies
+     * @param currencyCode : the currency to calculate in
+     * @param goldPricePerGram : the price of a gram of gold in that currency
+     * @param silverPricePerGram : the price of a gram of silver in that currency
+     * @return the zakat against both the gold and the silver nisab
      */
-    public static BigDecimal calculateZakat(double nisab, List<Asset> selectedAssets) {
-        BigDecimal total = selectedAssets.stream().map(Asset::getCurrentValue).reduce(BigDecimal.ZERO, BigDecimal::add);
-        return total.compareTo(BigDecimal.valueOf(nisab)) >= 0 ? total.multiply(BigDecimal.valueOf(ZAKAT_PERCENTAGE)) : BigDecimal.ZERO;
+    public static ZakatResult calculateZakat(Collection<Asset> selectedAssets, String currencyCode,
+                                             BigDecimal goldPricePerGram, BigDecimal silverPricePerGram) {
+        return calculateZakat(selectedAssets, currencyCode, goldPricePerGram, silverPricePerGram, CurrencyConversion.getRateTable());
     }
 
+    /**
+     * This method handles zakat calculation in exact decimal: the assets are summed per currency, each currency's
+     * sum is converted once with the given rates, and the converted total is compared to both nisabs in one pass.
+     * Nothing is rounded to cents here; callers round the result only to display or write it
+     * @param selectedAssets : the assets selected by the user to apply zakat on, in any currencies
+     * @param currencyCode : the currency to calculate in
+     * @param goldPricePerGram : the price of a gram of gold in that currency
+     * @param silverPricePerGram : the price of a gram of silver in that currency
+     * @param rates : the exchange rates to convert with
+     * @return the zakat against both the gold and the silver nisab
+     */
+    public static ZakatResult calculateZakat(Collection<Asset> selectedAssets, String currencyCode,
+                                             BigDecimal goldPricePerGram, BigDecimal silverPricePerGram, ExchangeRateTable rates) {
+        Map<Currency, BigDecimal> totalsByCurrency = new HashMap<>();
+        for (Asset asset : selectedAssets) {
+            if (asset.getCurrentValue() != null && asset.getCurrency() != null) {
+                totalsByCurrency.merge(asset.getCurrency(), asset.getCurrentValue(), BigDecimal::add);
+            }
+        }
+        return calculateZakat(totalsByCurrency, currencyCode, goldPricePerGram, silverPricePerGram, rates);
+    }
+
+    /**
+     * This method handles zakat calculation on assets already summed per currency
+     * @param totalsByCurrency : the value of the assets held in each currency
+     * @param currencyCode : the currency to calculate in
+     * @param goldPricePerGram : the price of a gram of gold in that currency
+     * @param silverPricePerGram : the price of a gram of silver in that currency
+     * @param rates : the exchange rates to convert with
+     * @return the zakat against both the gold and the silver nisab
+     */
+    public static ZakatResult calculateZakat(Map<Currency, BigDecimal> totalsByCurrency, String currencyCode,
+                                             BigDecimal goldPricePerGram, BigDecimal silverPricePerGram, ExchangeRateTable rates) {
+        BigDecimal total = BigDecimal.ZERO;
+        List<String> unconvertedCurrencies = new ArrayList<>();
+        for (Map.Entry<Currency, BigDecimal> entry : totalsByCurrency.entrySet()) {
+            String code = entry.getKey().getCurrencyCode();
+            if (code.equals(currencyCode)) {
+                total = total.add(entry.getValue(), ZAKAT_PRECISION);
+                continue;
+            }
+            try {
+                total = total.add(entry.getValue().multiply(rates.getCrossRate(code, currencyCode), ZAKAT_PRECISION), ZAKAT_PRECISION);
+            }
+            catch (IllegalArgumentException e) {
+                System.err.println("Could not convert assets held in " + code + " to " + currencyCode + ": " + e.getMessage());
+                unconvertedCurrencies.add(code);
+            }
+        }
+
+        BigDecimal goldNisab = getGoldNisab(goldPricePerGram);
+        BigDecimal silverNisab = getSilverNisab(silverPricePerGram);
+        BigDecimal zakat = total.multiply(ZAKAT_RATE, ZAKAT_PRECISION);
+        return new ZakatResult(currencyCode, totalsByCurrency, total, goldNisab, silverNisab,
+                total.compareTo(goldNisab) >= 0 ? zakat : BigDecimal.ZERO,
+                total.compareTo(silverNisab) >= 0 ? zakat : BigDecimal.ZERO,
+                unconvertedCurrencies);
+    }
 
     /**
      * This function calculates the gold nisab based on the gold exchange rate
-     * @param goldExchangeRate : the gold exchange rate
+     * @param goldExchangeRate : the price of a gram of gold
      * @return the gold nisab
      */
-    static public double getGoldNisab(double goldExchangeRate) {
-        return goldExchangeRate * GOLD_NISAB_WEIGHT;
+    static public BigDecimal getGoldNisab(BigDecimal goldExchangeRate) {
+        return goldExchangeRate.multiply(GOLD_NISAB_WEIGHT, ZAKAT_PRECISION);
     }
 
     /**
      * This function calculates the silver nisab based on the silver exchange rate
-     * @param silverExchangeRate : the silver exchange rate
+     * @param silverExchangeRate : the price of a gram of silver
      * @return the silver nisab
      */
-    static public double getSilverNisab(double silverExchangeRate) {
-        return silverExchangeRate * SILVER_NISAB_WEIGHT;
+    static public BigDecimal getSilverNisab(BigDecimal silverExchangeRate) {
+        return silverExchangeRate.multiply(SILVER_NISAB_WEIGHT, ZAKAT_PRECISION);
+    }
+
+    /**
+     * Computes the hawl date and status of every asset of a user in one pass. The hawl dates are cached until
+     * the purchase date or owner of one of the user's assets changes.
+     * @param userId : the user id
+     * @return the hawl status of each of the user's assets as of today, by asset id
+     */
+    public synchronized Map<UUID, HawlStatus> getHawlStatuses(UUID userId) {
+        Map<UUID, LocalDate> hawlDates = getHawlDates(userId);
+        LocalDate today = LocalDate.now(clock);
+        Map<UUID, HawlStatus> statuses = new HashMap<>(hawlDates.size() * 4 / 3 + 1);
+        for (Map.Entry<UUID, LocalDate> entry : hawlDates.entrySet()) {
+            LocalDate hawlDate = entry.getValue();
+            statuses.put(entry.getKey(), new HawlStatus(entry.getKey(), hawlDate, hawlDate != null && !hawlDate.isAfter(today)));
+        }
+        return statuses;
+    }
+
+    /**
+     * @return the hawl date of each of the user's assets, from the cache if present
+     */
+    private synchronized Map<UUID, LocalDate> getHawlDates(UUID userId) {
+        Map<UUID, LocalDate> hawlDates = hawlDatesByUser.get(userId);
+        if (hawlDates != null) {
+            return hawlDates;
+        }
+        List<AssetRecord> records = assetRepo.getUserAssetRecords(userId);
+        ZoneId zone = clock.getZone();
+        hawlDates = new HashMap<>(records.size() * 4 / 3 + 1);
+        for (AssetRecord record : records) {
+            hawlDates.put(record.id(), hawlDateOf(record.purchaseDate(), zone));
+        }
+        if (cachingHawlDates) {
+            hawlDatesByUser.put(userId, hawlDates);
+        }
+        return hawlDates;
+    }
+
+    /**
+     * Gets a user's assets whose hawl completes between two days, from the repository's purchase date index
+     * @param userId : the user id
+     * @param from : the first hawl day, inclusive
+     * @param to : the last hawl day, inclusive, or null for no upper bound
+     * @return the assets, in hawl date order
+     */
+    public List<Asset> getAssetsWithHawlBetween(UUID userId, LocalDate from, LocalDate to) {
+        if (userId == null || from == null || (to != null && from.isAfter(to))) {
+            return List.of();
+        }
+        ZoneId zone = clock.getZone();
+        return assetRepo.getUserAssetsPurchasedBetween(userId,
+                from.minusDays(HAWL_DAYS).atStartOfDay(zone).toInstant(),
+                to != null ? to.minusDays(HAWL_DAYS - 1).atStartOfDay(zone).toInstant() : null);
+    }
+
+    /**
+     * Gets a user's assets whose hawl completes from today up to the given number of days ahead
+     * @param userId : the user id
+     * @param days : how many days ahead to look, e.g. 30
+     * @return the assets, in hawl date order
+     */
+    public List<Asset> getAssetsWithHawlDueWithin(UUID userId, int days) {
+        LocalDate today = LocalDate.now(clock);
+        return getAssetsWithHawlBetween(userId, today, today.plusDays(days));
+    }
+
+    /**
+     * @param purchaseDate : the purchase date of an asset, or null
+     * @param zone : the time zone of the purchase day
+     * @return the day the asset's hawl completes, or null if it has no purchase date
+     */
+    static LocalDate hawlDateOf(Instant purchaseDate, ZoneId zone) {
+        return purchaseDate == null ? null : LocalDate.ofInstant(purchaseDate, zone).plusDays(HAWL_DAYS);
+    }
+
+    /**
+     * Keeps the cached hawl dates up to date with asset changes; value changes do not affect them
+     * @param events : the asset changes
+     */
+    private synchronized void applyAssetChanges(List<AssetChangeEvent> events) {
+        ZoneId zone = clock.getZone();
+        for (AssetChangeEvent event : events) {
+            if (event.type() == AssetChangeEvent.Type.VALUE_CHANGED) {
+                continue;
+            }
+            if (event.before() != null) {
+                Map<UUID, LocalDate> hawlDates = hawlDatesByUser.get(event.before().userId());
+                if (hawlDates != null) {
+                    hawlDates.remove(event.before().id());
+                }
+            }
+            if (event.after() != null) {
+                Map<UUID, LocalDate> hawlDates = hawlDatesByUser.get(event.after().userId());
+                if (hawlDates != null) {
+                    hawlDates.put(event.after().id(), hawlDateOf(event.after().purchaseDate(), zone));
+                }
+            }
+        }
     }
 
     /**
@@ -63,10 +263,7 @@ public class ZakatAndComplianceService {
      */
     public Date getHawlDate(UUID assetId) {
         Date purchaseDate = assetRepo.getAssetById(assetId).getPurchaseDate();
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(purchaseDate);
-        cal.add(Calendar.DAY_OF_YEAR, 354); // one lunar year after purchase date
-        return cal.getTime();
+        return Date.from(purchaseDate.toInstant().atZone(clock.getZone()).plusDays(HAWL_DAYS).toInstant());
     }
 
     /**
@@ -75,8 +272,6 @@ public class ZakatAndComplianceService {
      * @return true if the Hawl has passed, false otherwise
      */
     public Boolean hasHawlPassed(UUID assetId) {
-        Date hawlDate = getHawlDate(assetId);
-        Date now = new Date();
-        return hawlDate.before(now) || hawlDate.equals(now);
+        return !getHawlDate(assetId).toInstant().isAfter(clock.instant());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package fcai.prospera.service;
+
+import fcai.prospera.CurrencyConversion;
+import fcai.prospera.ExchangeRateTable;
+import fcai.prospera.model.AssetRecord;
+import fcai.prospera.model.User;
+import fcai.prospera.model.ZakatResult;
+import fcai.prospera.repository.AssetRepository;
+import fcai.prospera.repository.PartitionedAssetRepository;
+import fcai.prospera.repository.UserRepository;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Calculates the zakat of every user in one run, e.g. at year end, and writes one row per user to a CSV or XLSX file.
+ * <p>
+ * An asset is zakatable once it has completed its hawl on the day of the run. Users are processed in parallel on
+ * virtual threads with a bounded number in flight, and their rows are written by the calling thread as they complete,
+ * in completion order, so memory stays bounded by the users in flight. A user whose calculation fails gets a row
+ * with the error and the run goes on. Interrupting the calling thread cancels the run, keeping the rows written so far.
+ */
+public class ZakatBatchJob {
+    /**
+     * Receives progress updates from a run, on the calling thread
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(int usersDone, int usersTotal, int usersFailed);
+    }
+
+    /**
+     * The outcome of a run
+     */
+    public record BatchResult(int users, int failed, boolean cancelled) { }
+
+    /**
+     * The zakat of one user
+     * @param user : the user
+     * @param assets : the number of assets the user holds
+     * @param zakatableAssets : the number of assets that completed their hawl
+     * @param nextHawlDate : the earliest hawl date still to come, or null if there is none
+     * @param zakat : the zakat on the zakatable assets, or null if the calculation failed
+     * @param error : why the calculation failed, or null
+     */
+    public record UserZakat(User user, int assets, int zakatableAssets, LocalDate nextHawlDate, ZakatResult zakat, String error) { }
+
+    /**
+     * Writes the rows of a run
+     */
+    public interface ResultWriter extends Closeable {
+        void write(UserZakat row) throws IOException;
+    }
+
+    private static final String[] COLUMNS = {"user_id", "username", "email", "assets", "zakatable_assets", "next_hawl_date",
+            "currency", "zakatable_total", "gold_nisab", "silver_nisab", "zakat_by_gold", "zakat_by_silver",
+            "unconverted_currencies", "error"};
+    private static final int AMOUNT_DECIMALS = 2;
+    private static final int XLSX_ROW_WINDOW = 100;
+
+    private final UserRepository userRepo;
+    private final AssetRepository assetRepo;
+    private final Clock clock;
+    private final int parallelism;
+
+    /**
+     * @param userRepo : the repository listing the users
+     * @param assetRepo : the repository holding the assets
+     */
+    public ZakatBatchJob(UserRepository userRepo, AssetRepository assetRepo) {
+        this(userRepo, assetRepo, Clock.systemDefaultZone(), Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param userRepo : the repository listing the users
+     * @param assetRepo : the repository holding the assets
+     * @param clock : the clock giving the day of the run and the time zone of hawl days
+     * @param parallelism : the most users processed at the same time
+     */
+    public ZakatBatchJob(UserRepository userRepo, AssetRepository assetRepo, Clock clock, int parallelism) {
+        this.userRepo = userRepo;
+        this.assetRepo = assetRepo;
+        this.clock = clock;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Runs the job at the current exchange rates, writing a CSV or XLSX file chosen by the output's extension
+     * @param output : the file to write
+     * @param currencyCode : the currency to calculate in
+     * @param goldPricePerGram : the price of a gram of gold in that currency
+     * @param silverPricePerGram : the price of a gram of silver in that currency
+     * @param listener : receives progress updates, may be null
+     * @return the outcome of the run
+     * @throws IOException : if the output could not be written
+     */
+    public BatchResult run(Path output, String currencyCode, BigDecimal goldPricePerGram, BigDecimal silverPricePerGram,
+                           ProgressListener listener) throws IOException {
+        try (ResultWriter writer = openWriter(output)) {
+            return run(writer, currencyCode, goldPricePerGram, silverPricePerGram, CurrencyConversion.getRateTable(), listener);
+        }
+    }
+
+    /**
+     * Runs the job
+     * @param writer : receives the row of every user
+     * @param currencyCode : the currency to calculate in
+     * @param goldPricePerGram : the price of a gram of gold in that currency
+     * @param silverPricePerGram : the price of a gram of silver in that currency
+     * @param rates : the exchange rates to convert with, the same for every user
+     * @param listener : receives progress updates, may be null
+     * @return the outcome of the run
+     * @throws IOException : if a row could not be written
+     */
+    public BatchResult run(ResultWriter writer, String currencyCode, BigDecimal goldPricePerGram, BigDecimal silverPricePerGram,
+                           ExchangeRateTable rates, ProgressListener listener) throws IOException {
+        List<User> users = userRepo.getAllUsers();
+        // partitions loaded only for this run are dropped after each user, so memory does not grow with the user count
+        Set<UUID> loadedBefore = assetRepo instanceof PartitionedAssetRepository partitioned ? partitioned.getLoadedUserIds() : null;
+        LocalDate today = LocalDate.now(clock);
+        int done = 0;
+        int failed = 0;
+        boolean cancelled = false;
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        CompletionService<UserZakat> completed = new ExecutorCompletionService<>(executor);
+        try {
+            int submitted = 0;
+            while (done < users.size()) {
+                while (submitted < users.size() && submitted - done < parallelism) {
+                    User user = users.get(submitted++);
+                    completed.submit(() -> calculate(user, today, currencyCode, goldPricePerGram, silverPricePerGram, rates, loadedBefore));
+                }
+
+                UserZakat row;
+                try {
+                    row = completed.take().get();
+                }
+                catch (ExecutionException exception) {
+                    // calculate() reports its own failures; this is a bug or an Error, keep going without the row
+                    System.err.println("Error in zakat batch: " + exception.getCause());
+                    done++;
+                    failed++;
+                    continue;
+                }
+                writer.write(row);
+                done++;
+                if (row.error() != null) {
+                    failed++;
+                }
+                if (listener != null) {
+                    listener.progress(done, users.size(), failed);
+                }
+            }
+            return new BatchResult(done, failed, false);
+        }
+        catch (InterruptedException interrupted) {
+            cancelled = true;
+            return new BatchResult(done, failed, true);
+        }
+        finally {
+            // the users in flight are left to finish rather than interrupted, so no partition is dropped halfway through loading
+            executor.shutdown();
+            awaitTermination(executor);
+            if (cancelled) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the users in flight to finish; interrupting the wait interrupts them
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting
+            }
+        }
+        catch (InterruptedException interrupted) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calculates the zakat of one user, reporting a failure in the row instead of throwing
+     */
+    private UserZakat calculate(User user, LocalDate today, String currencyCode, BigDecimal goldPricePerGram,
+                                BigDecimal silverPricePerGram, ExchangeRateTable rates, Set<UUID> loadedBefore) {
+        try {
+            List<AssetRecord> records = assetRepo.getUserAssetRecords(user.getId());
+            ZoneId zone = clock.getZone();
+            Map<Currency, BigDecimal> zakatableTotals = new HashMap<>();
+            int zakatable = 0;
+            LocalDate nextHawlDate = null;
+            for (AssetRecord record : records) {
+                LocalDate hawlDate = ZakatAndComplianceService.hawlDateOf(record.purchaseDate(), zone);
+                if (hawlDate == null) {
+                    continue;
+                }
+                if (hawlDate.isAfter(today)) {
+                    nextHawlDate = nextHawlDate == null || hawlDate.isBefore(nextHawlDate) ? hawlDate : nextHawlDate;
+                    continue;
+                }
+                zakatable++;
+                if (record.currentValue() != null && record.currency() != null) {
+                    zakatableTotals.merge(record.currency(), record.currentValue(), BigDecimal::add);
+                }
+            }
+            ZakatResult zakat = ZakatAndComplianceService.calculateZakat(zakatableTotals, currencyCode, goldPricePerGram, silverPricePerGram, rates);
+            return new UserZakat(user, records.size(), zakatable, nextHawlDate, zakat, null);
+        }
+        catch (RuntimeException exception) {
+            String message = exception.getMessage() != null ? exception.getMessage() : exception.getClass().getSimpleName();
+            System.err.println("Error calculating zakat for user " + user.getId() + ": " + message);
+            return new UserZakat(user, 0, 0, null, null, message);
+        }
+        finally {
+            if (loadedBefore != null && !loadedBefore.contains(user.getId())) {
+                ((PartitionedAssetRepository) assetRepo).evict(user.getId());
+            }
+        }
+    }
+
+    /**
+     * Opens a writer for a CSV or XLSX file, chosen by its extension
+     * @param output : the file to write
+     * @return the writer
+     * @throws IOException : if the file could not be created
+     */
+    public static ResultWriter openWriter(Path output) throws IOException {
+        String name = output.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".xlsx") ? new XlsxResultWriter(output) : new CsvResultWriter(output);
+    }
+
+    /**
+     * @return the values of a row, in the order of {@link #COLUMNS}; amounts are rounded to cents
+     */
+    private static String[] values(UserZakat row) {
+        ZakatResult zakat = row.zakat();
+        return new String[] {
+                String.valueOf(row.user().getId()),
+                row.user().getUsername(),
+                row.user().getEmail(),
+                String.valueOf(row.assets()),
+                String.valueOf(row.zakatableAssets()),
+                row.nextHawlDate() != null ? row.nextHawlDate().toString() : "",
+                zakat != null ? zakat.currencyCode() : "",
+                amount(zakat != null ? zakat.total() : null),
+                amount(zakat != null ? zakat.goldNisab() : null),
+                amount(zakat != null ? zakat.silverNisab() : null),
+                amount(zakat != null ? zakat.zakatByGold() : null),
+                amount(zakat != null ? zakat.zakatBySilver() : null),
+                zakat != null ? String.join(" ", zakat.unconvertedCurrencies()) : "",
+                row.error() != null ? row.error() : ""
+        };
+    }
+
+    private static String amount(BigDecimal value) {
+        return value != null ? value.setScale(AMOUNT_DECIMALS, RoundingMode.HALF_EVEN).toPlainString() : "";
+    }
+
+    /**
+     * Writes rows as UTF-8 CSV, quoting values when needed
+     */
+    private static final class CsvResultWriter implements ResultWriter {
+        private final BufferedWriter out;
+
+        CsvResultWriter(Path output) throws IOException {
+            // a plain file stream, unlike a channel, is not closed by interrupting the thread that cancels the run
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output.toFile()), StandardCharsets.UTF_8));
+            writeRecord(COLUMNS);
+        }
+
+        @Override
+        public void write(UserZakat row) throws IOException {
+            writeRecord(values(row));
+        }
+
+        private void writeRecord(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = values[i] != null ? values[i] : "";
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                }
+                else {
+                    out.write(value);
+                }
+            }
+            out.write("\r\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes rows to an XLSX sheet through POI's streaming workbook, which keeps only a window of rows in memory
+     */
+    private static final class XlsxResultWriter implements ResultWriter {
+        // the columns holding counts and amounts, written as numeric cells
+        private static final Set<Integer> NUMERIC_COLUMNS = Set.of(3, 4, 7, 8, 9, 10, 11);
+
+        private final Path output;
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+        private final Sheet sheet = workbook.createSheet("Zakat");
+        private int rowCount;
+
+        XlsxResultWriter(Path output) {
+            this.output = output;
+            writeRecord(COLUMNS, false);
+        }
+
+        @Override
+        public void write(UserZakat row) {
+            writeRecord(values(row), true);
+        }
+
+        private void writeRecord(String[] values, boolean typed) {
+            Row row = sheet.createRow(rowCount++);
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i] != null ? values[i] : "";
+                if (typed && NUMERIC_COLUMNS.contains(i) && !value.isEmpty()) {
+                    row.createCell(i).setCellValue(new BigDecimal(value).doubleValue());
+                }
+                else {
+                    row.createCell(i).setCellValue(value);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream out = new FileOutputStream(output.toFile())) {
+                workbook.write(out);
+            }
+            finally {
+                workbook.dispose();
+                workbook.close();
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 module fcai.prospera {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.net.http;
+    requires java.sql;
+    requires java.xml;
     requires org.apache.poi.ooxml;
     requires org.apache.pdfbox;
 
@@ -0,0 +1,159 @@
+package fcai.prospera.repository;
+
+import fcai.prospera.model.ValuationPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValuationHistoryStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void timestampsRoundTripAtEveryDeltaOfDeltaBucketEdge() {
+        long[] deltasOfDeltas = {
+                0, 64, -63, 65, -64, 256, -255, 257, -256, 2048, -2047, 2049, -2048,
+                Integer.MAX_VALUE, Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1, (long) Integer.MIN_VALUE - 1
+        };
+        List<ValuationPoint> expected = new ArrayList<>();
+        long second = 0;
+        long delta = 10_000_000_000L;
+        expected.add(point(second, "1"));
+        for (long deltaOfDelta : deltasOfDeltas) {
+            delta += deltaOfDelta;
+            second += delta;
+            expected.add(point(second, "1"));
+        }
+        // regular ticks until the block is sealed
+        while (expected.size() < 200) {
+            second += 86_400;
+            expected.add(point(second, "1"));
+        }
+
+        assertRoundTrip(expected);
+    }
+
+    @Test
+    void valuesRoundTripWithAllSixtyFourBitsDiffering() {
+        String[] values = {
+                "1", "-2", "1", String.valueOf(Long.MAX_VALUE), String.valueOf(-Long.MAX_VALUE), "0",
+                String.valueOf(Long.MAX_VALUE), "-1", "0.5", "-0.5"
+        };
+        List<ValuationPoint> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            expected.add(point(1_700_000_000L + i * 60L, values[i % values.length]));
+        }
+
+        assertRoundTrip(expected);
+    }
+
+    @Test
+    void valuesRoundTripWhenTheScaleChangesInsideABlock() {
+        String[] values = {"1", "1.5", "2.25", "1.123456789", "10", "0.0000000001", "7"};
+        List<ValuationPoint> expected = new ArrayList<>();
+        for (int i = 0; i < 140; i++) {
+            expected.add(point(1_700_000_000L + i, values[i % values.length]));
+        }
+        // cannot be rescaled to the block's scale without overflowing, so the block is sealed early
+        expected.add(point(1_700_001_000L, "900000000000000000"));
+        expected.add(point(1_700_001_001L, "0.5"));
+
+        assertRoundTrip(expected);
+    }
+
+    @Test
+    void unsealedPointsSurviveAStoreThatWasNotClosed() {
+        Path history = directory.resolve("valuations.hist");
+        UUID assetId = UUID.randomUUID();
+        ValuationHistoryStore crashed = new ValuationHistoryStore(history.toString());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(crashed.append(assetId, Instant.ofEpochSecond(1_700_000_000L + i), new BigDecimal(i)));
+        }
+
+        ValuationHistoryStore reopened = new ValuationHistoryStore(history.toString());
+        List<ValuationPoint> points = reopened.getHistory(assetId, null, null);
+        assertEquals(10, points.size());
+        assertEquals(0, points.get(9).value().compareTo(new BigDecimal(9)));
+        reopened.close();
+    }
+
+    @Test
+    void pointsRecordedOneSessionAtATimeFillWholeBlocks() throws IOException {
+        Path history = directory.resolve("valuations.hist");
+        UUID assetId = UUID.randomUUID();
+        for (int day = 0; day < 300; day++) {
+            ValuationHistoryStore session = new ValuationHistoryStore(history.toString());
+            assertTrue(session.append(assetId, Instant.ofEpochSecond(1_700_000_000L + day * 86_400L), new BigDecimal("1000.00")));
+            session.close();
+        }
+
+        ValuationHistoryStore store = new ValuationHistoryStore(history.toString());
+        assertEquals(300, store.getHistory(assetId, null, null).size());
+        store.close();
+        // two sealed blocks of unchanged daily values, rather than one block per session
+        assertTrue(Files.size(history) < 300, "history file is " + Files.size(history) + " bytes");
+    }
+
+    @Test
+    void aTornTailRecordIsDropped() throws IOException {
+        Path history = directory.resolve("valuations.hist");
+        UUID assetId = UUID.randomUUID();
+        ValuationHistoryStore store = new ValuationHistoryStore(history.toString());
+        for (int i = 0; i < 5; i++) {
+            store.append(assetId, Instant.ofEpochSecond(1_700_000_000L + i), BigDecimal.ONE);
+        }
+        store.close();
+        Files.write(directory.resolve("valuations.tail"), new byte[20], StandardOpenOption.APPEND);
+
+        store = new ValuationHistoryStore(history.toString());
+        assertEquals(5, store.getHistory(assetId, null, null).size());
+        assertTrue(store.append(assetId, Instant.ofEpochSecond(1_700_000_010L), BigDecimal.TEN));
+        store.close();
+
+        store = new ValuationHistoryStore(history.toString());
+        assertEquals(6, store.getHistory(assetId, null, null).size());
+        store.close();
+    }
+
+    /**
+     * Records the points, then checks them both before and after the store is reopened from disk
+     */
+    private void assertRoundTrip(List<ValuationPoint> expected) {
+        Path history = directory.resolve("valuations.hist");
+        UUID assetId = UUID.randomUUID();
+        ValuationHistoryStore store = new ValuationHistoryStore(history.toString());
+        for (ValuationPoint point : expected) {
+            assertTrue(store.append(assetId, point.timestamp(), point.value()));
+        }
+        assertPoints(expected, store.getHistory(assetId, null, null));
+        store.close();
+
+        store = new ValuationHistoryStore(history.toString());
+        assertPoints(expected, store.getHistory(assetId, null, null));
+        store.close();
+    }
+
+    private static void assertPoints(List<ValuationPoint> expected, List<ValuationPoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).timestamp(), actual.get(i).timestamp(), "timestamp of point " + i);
+            assertEquals(0, expected.get(i).value().compareTo(actual.get(i).value()),
+                    "value of point " + i + ": expected " + expected.get(i).value() + " but was " + actual.get(i).value());
+        }
+    }
+
+    private static ValuationPoint point(long second, String value) {
+        return new ValuationPoint(Instant.ofEpochSecond(second), new BigDecimal(value));
+    }
+}